@@ -0,0 +1,195 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cross-JVM lock used while an OpenText folder is looked up and created, so adaptor instances on different
+ * AMANDA nodes don't create the same folder twice. Locks are rows of a table in the AMANDA database:
+ * <pre>
+ * CREATE TABLE EDMS_FOLDER_LOCK (
+ *     LockKey  VARCHAR(450) NOT NULL PRIMARY KEY,
+ *     LockedBy VARCHAR(100) NOT NULL,
+ *     LockedAt DATETIME     NOT NULL
+ * )
+ * </pre>
+ * Rows left behind by a crashed node are taken over once they are older than folderLock.staleSeconds, measured by
+ * the clock of the database. While a lock is held its row is refreshed every third of that age, so a holder
+ * waiting on a slow Content Server doesn't lose the lock to another node.
+ * The lock statements must not join the caller's transaction: an uncommitted lock row would block the other nodes
+ * and its delete would commit or roll back with the caller's work. They run on an autocommit connection of the data
+ * source set by {@link #setDataSource}, without it the caller's connection is only used when it is in autocommit
+ * mode. The caller's connection is shared by threads and used under its monitor like every other AMANDA access.
+ */
+public class AmandaFolderLock {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AmandaFolderLock.class);
+
+    private static final String OWNER = ManagementFactory.getRuntimeMXBean().getName();
+
+    private static final long POLL_INTERVAL_MILLIS = 100L;
+
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "edms-folder-lock-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Refresh tasks of the locks held by this JVM
+    private static final ConcurrentMap<String, ScheduledFuture<?>> REFRESH_TASKS = new ConcurrentHashMap<>();
+
+    private static volatile DataSource dataSource;
+
+    private final Connection connection;
+
+    private final String tableName;
+
+    public AmandaFolderLock(Connection connection) {
+        this.connection = connection;
+        this.tableName = EdmsProperties.getFolderLockTable();
+    }
+
+    /**
+     * @param lockDataSource AMANDA connections used for the lock rows only
+     */
+    public static void setDataSource(DataSource lockDataSource) {
+        dataSource = lockDataSource;
+    }
+
+    public void acquire(String lockKey) throws SQLException {
+        long deadline = System.currentTimeMillis() + EdmsProperties.getFolderLockTimeoutMillis();
+        while (!tryInsert(lockKey)) {
+            removeStale(lockKey);
+            if (System.currentTimeMillis() > deadline) {
+                throw new RuntimeException("Timed out waiting for the folder lock " + lockKey);
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException exp) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the folder lock " + lockKey, exp);
+            }
+        }
+        long refreshMillis = Math.max(POLL_INTERVAL_MILLIS, EdmsProperties.getFolderLockStaleMillis() / 3L);
+        ScheduledFuture<?> previous = REFRESH_TASKS.put(lockKey,
+                REFRESHER.scheduleWithFixedDelay(() -> refresh(lockKey), refreshMillis, refreshMillis, TimeUnit.MILLISECONDS));
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        LOGGER.debug("EDMS:: Acquired folder lock {}", lockKey);
+    }
+
+    public void release(String lockKey) {
+        ScheduledFuture<?> refreshTask = REFRESH_TASKS.remove(lockKey);
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+        try {
+            execute("DELETE FROM " + tableName + " WHERE LockKey = ? AND LockedBy = ?", lockKey, OWNER);
+            LOGGER.debug("EDMS:: Released folder lock {}", lockKey);
+        } catch (SQLException exp) {
+            // The row becomes stale and is taken over after folderLock.staleSeconds
+            LOGGER.error("Error while releasing folder lock {}", lockKey, exp);
+        }
+    }
+
+    private boolean tryInsert(String lockKey) throws SQLException {
+        try {
+            execute("INSERT INTO " + tableName + " (LockKey, LockedBy, LockedAt) VALUES (?, ?, CURRENT_TIMESTAMP)", lockKey, OWNER);
+            return true;
+        } catch (SQLException exp) {
+            if (isDuplicateKey(exp)) {
+                return false;
+            }
+            throw exp;
+        }
+    }
+
+    private void refresh(String lockKey) {
+        try {
+            if (execute("UPDATE " + tableName + " SET LockedAt = CURRENT_TIMESTAMP WHERE LockKey = ? AND LockedBy = ?", lockKey, OWNER) == 0) {
+                LOGGER.error("EDMS:: Folder lock {} was taken over by another node while it was held", lockKey);
+            }
+        } catch (SQLException | RuntimeException exp) {
+            LOGGER.error("Error while refreshing folder lock {}", lockKey, exp);
+        }
+    }
+
+    private void removeStale(String lockKey) throws SQLException {
+        long staleSeconds = EdmsProperties.getFolderLockStaleMillis() / 1000L;
+        if (execute("DELETE FROM " + tableName + " WHERE LockKey = ? AND LockedAt < DATEADD(second, -" + staleSeconds + ", CURRENT_TIMESTAMP)", lockKey) > 0) {
+            LOGGER.warn("EDMS:: Removed stale folder lock {}", lockKey);
+        }
+    }
+
+    /**
+     * Runs a lock statement outside of the caller's transaction
+     *
+     * @return the update count
+     */
+    private int execute(String sql, String... parameters) throws SQLException {
+        DataSource lockDataSource = dataSource;
+        if (lockDataSource != null) {
+            Connection lockConnection = lockDataSource.getConnection();
+            try {
+                if (!lockConnection.getAutoCommit()) {
+                    lockConnection.setAutoCommit(true);
+                }
+                return executeUpdate(lockConnection, sql, parameters);
+            } finally {
+                try {
+                    lockConnection.close();
+                } catch (Exception exp) {
+                    LOGGER.error("Error while closing connection", exp);
+                }
+            }
+        }
+        synchronized (connection) {
+            if (!connection.getAutoCommit()) {
+                throw new RuntimeException("folderLock.mode=database needs an autocommit AMANDA connection or AmandaFolderLock.setDataSource");
+            }
+            return executeUpdate(connection, sql, parameters);
+        }
+    }
+
+    private static int executeUpdate(Connection lockConnection, String sql, String... parameters) throws SQLException {
+        PreparedStatement ps = null;
+        try {
+            ps = lockConnection.prepareStatement(sql);
+            for (int i = 0; i < parameters.length; i++) {
+                ps.setString(i + 1, parameters[i]);
+            }
+            return ps.executeUpdate();
+        } finally {
+            closeQuietly(ps);
+        }
+    }
+
+    private static boolean isDuplicateKey(SQLException exp) {
+        // SQL Server reports 2627 (primary key) / 2601 (unique index), other drivers use SQLState class 23
+        return exp.getErrorCode() == 2627 || exp.getErrorCode() == 2601
+                || (exp.getSQLState() != null && exp.getSQLState().startsWith("23"));
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        if (ps != null) {
+            try {
+                ps.close();
+            } catch (Exception exp) {
+                LOGGER.error("Error while closing prepared statement", exp);
+            }
+        }
+    }
+}
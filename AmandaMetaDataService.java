@@ -3,100 +3,224 @@ package amanda.edms;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
- * The class fetches MetaData from AMANDA database.
+ * The class fetches MetaData from AMANDA database. The statements are prepared once per connection and reused,
+ * see {@link AmandaStatementCache}.
  */
 public class AmandaMetaDataService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AmandaMetaDataService.class);
 
+    private static final int ADDRESS_BATCH_SIZE = 50;
+
+    private static final String ATTACHMENT_SQL = "SELECT IsNull(Attachment.attachmentdesc,'') Description, "
+            + "ValidAttachment.AttachmentDesc Type "
+            + "FROM Attachment inner join ValidAttachment ON Attachment.AttachmentCode = ValidAttachment.AttachmentCode "
+            + "WHERE AttachmentRSN = ?";
+
+    private static final int ATTACHMENT_BATCH_SIZE = 100;
+
+    // The IN lists are padded to one of these sizes so the cache holds a few statements instead of one per size
+    private static final int[] ATTACHMENT_BATCH_BUCKETS = {10, 25, 50, ATTACHMENT_BATCH_SIZE};
+
+    private static final String FOLDER_ATTACHMENTS_SQL = "SELECT Attachment.AttachmentRSN, IsNull(Attachment.attachmentdesc,'') Description, "
+            + "ValidAttachment.AttachmentDesc Type "
+            + "FROM Attachment inner join ValidAttachment ON Attachment.AttachmentCode = ValidAttachment.AttachmentCode "
+            + "WHERE Attachment.TableName = 'Folder' AND Attachment.TableRSN = ? "
+            + "ORDER BY Attachment.AttachmentRSN";
+
+    // Completed with the parameter list of the batch
+    private static final String ATTACHMENTS_SQL = "SELECT Attachment.AttachmentRSN, Attachment.TableRSN FolderRSN, "
+            + "IsNull(Attachment.attachmentdesc,'') Description, ValidAttachment.AttachmentDesc Type "
+            + "FROM Attachment inner join ValidAttachment ON Attachment.AttachmentCode = ValidAttachment.AttachmentCode "
+            + "WHERE Attachment.TableName = 'Folder' AND Attachment.AttachmentRSN IN (";
+
+    private static final String FOLDER_SQL = "Select F.FolderType, F.FolderSection, F.FolderRevision, F.FolderSequence , F.FolderYear "
+            + "From Folder F, Attachment A "
+            + "where a.attachmentRSN = ? "
+            + "and a.TableRSN=F.FolderRSN and a.TableName='Folder'";
+
+    private static final String PARCEL_SQL = "SELECT distinct replace(p.PropertyRoll,'-','') ParcelID "
+            + "FROM  Property as p , Folder as f, FolderProperty FP "
+            + "WHERE P.PropertyRSN = FP.PropertyRSN "
+            + "and F.FolderRSN=FP.FolderRSN and F.FolderRSN = ?";
+
+    private static final String PERMIT_CALL = "{call SNOCO_PRISM_Get_Permit_Complete_New(?, ?, ?, ?, ?)}";
+
+    private static final String ADDRESS_CALL = "{call SNOCO_PRISM_Get_Addresses(?)}";
+
+    private static final String PARCEL_MARKER = "ParcelMarker";
+
+    private static final String ADDRESS_MARKED_EXEC = "SELECT ? " + PARCEL_MARKER + "; EXEC SNOCO_PRISM_Get_Addresses ?; ";
+
+    /**
+     * Results: attachment, folder, then when the folder exists the permits, the parcels and for each parcel a
+     * marker row followed by the addresses of the parcel
+     */
+    private static final String COMBINED_SQL = "SET NOCOUNT ON; "
+            + "DECLARE @AttachmentRSN INT, @FolderRSN INT, @FolderType VARCHAR(255), @FolderSection VARCHAR(255), "
+            + "@FolderRevision VARCHAR(255), @FolderSequence VARCHAR(255), @FolderYear VARCHAR(255), @ParcelID VARCHAR(255); "
+            + "DECLARE @Parcels TABLE (ParcelID VARCHAR(255) PRIMARY KEY); "
+            + "SET @AttachmentRSN = ?; "
+            + "SELECT IsNull(Attachment.attachmentdesc,'') Description, ValidAttachment.AttachmentDesc Type "
+            + "FROM Attachment inner join ValidAttachment ON Attachment.AttachmentCode = ValidAttachment.AttachmentCode "
+            + "WHERE AttachmentRSN = @AttachmentRSN; "
+            + "SELECT @FolderRSN = F.FolderRSN, @FolderType = F.FolderType, @FolderSection = F.FolderSection, "
+            + "@FolderRevision = F.FolderRevision, @FolderSequence = F.FolderSequence, @FolderYear = F.FolderYear "
+            + "From Folder F, Attachment A where a.attachmentRSN = @AttachmentRSN and a.TableRSN=F.FolderRSN and a.TableName='Folder'; "
+            + "SELECT @FolderType FolderType, @FolderSection FolderSection, @FolderRevision FolderRevision, "
+            + "@FolderSequence FolderSequence, @FolderYear FolderYear WHERE @FolderRSN IS NOT NULL; "
+            + "IF @FolderRSN IS NOT NULL "
+            + "BEGIN "
+            + "EXEC SNOCO_PRISM_Get_Permit_Complete_New @FolderType, @FolderSection, @FolderRevision, @FolderSequence, @FolderYear; "
+            + "INSERT INTO @Parcels SELECT distinct replace(p.PropertyRoll,'-','') "
+            + "FROM Property as p , Folder as f, FolderProperty FP "
+            + "WHERE P.PropertyRSN = FP.PropertyRSN and F.FolderRSN=FP.FolderRSN and F.FolderRSN = @FolderRSN "
+            + "and LTRIM(RTRIM(replace(p.PropertyRoll,'-',''))) <> ''; "
+            + "SELECT ParcelID FROM @Parcels ORDER BY ParcelID; "
+            + "DECLARE ParcelCursor CURSOR LOCAL FAST_FORWARD FOR SELECT ParcelID FROM @Parcels ORDER BY ParcelID; "
+            + "OPEN ParcelCursor; "
+            + "FETCH NEXT FROM ParcelCursor INTO @ParcelID; "
+            + "WHILE @@FETCH_STATUS = 0 "
+            + "BEGIN "
+            + "SELECT @ParcelID " + PARCEL_MARKER + "; "
+            + "EXEC SNOCO_PRISM_Get_Addresses @ParcelID; "
+            + "FETCH NEXT FROM ParcelCursor INTO @ParcelID; "
+            + "END; "
+            + "CLOSE ParcelCursor; "
+            + "DEALLOCATE ParcelCursor; "
+            + "END";
+
     private Connection connection;
 
-    private AttachmentMetaData attachmentMetaData;
+    private final Map<Integer, AttachmentMetaData> attachmentMetaData = new HashMap<>();
 
     private FolderData folderData;
 
     private List<String> parcelData;
 
-    private String permitData[][];
+    private List<PermitRecord> permitData;
 
-    private String[][] taxMetaData;
+    private final Map<String, List<TaxAddressRecord>> taxMetaData = new HashMap<>();
 
     public AmandaMetaDataService(Connection connection) {
         this.connection = connection;
     }
 
     public AttachmentMetaData getAttachmentMetaData(Integer attachmentRSN) throws SQLException {
-        if (attachmentMetaData != null) {
-            return attachmentMetaData;
+        if (attachmentMetaData.containsKey(attachmentRSN)) {
+            return attachmentMetaData.get(attachmentRSN);
         }
-        PreparedStatement ps = null;
+        AttachmentMetaData metaData = null;
+        PreparedStatement ps = AmandaStatementCache.prepare(connection, ATTACHMENT_SQL);
         try {
-            StringBuilder sql = new StringBuilder();
-            sql.append("SELECT IsNull(Attachment.attachmentdesc,'') Description, ");
-            sql.append("ValidAttachment.AttachmentDesc Type ");
-            sql.append("FROM Attachment inner join ValidAttachment ON Attachment.AttachmentCode = ValidAttachment.AttachmentCode ");
-            sql.append("WHERE AttachmentRSN = ?");
-            ps = connection.prepareStatement(sql.toString());
             ps.setLong(1, attachmentRSN);
             ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                attachmentMetaData = new AttachmentMetaData();
-                attachmentMetaData.setSource("AMANDA Attachment");
-                attachmentMetaData.setDescription(rs.getString("Description"));
-                attachmentMetaData.setType(rs.getString("Type"));
+            metaData = readAttachmentMetaData(rs);
+            rs.close();
+        } catch (SQLException exp) {
+            AmandaStatementCache.invalidate(connection, ps);
+            throw exp;
+        }
+        attachmentMetaData.put(attachmentRSN, metaData);
+        return metaData;
+    }
+
+    /**
+     * Loads the description and type of the attachments of an AMANDA folder in one query
+     *
+     * @return the attachment RSNs of the folder, their metadata is cached
+     */
+    public List<Integer> prefetchFolderAttachments(Integer folderRSN) throws SQLException {
+        List<Integer> attachmentRSNs = new ArrayList<>();
+        PreparedStatement ps = AmandaStatementCache.prepare(connection, FOLDER_ATTACHMENTS_SQL);
+        try {
+            ps.setInt(1, folderRSN);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                Integer attachmentRSN = rs.getInt("AttachmentRSN");
+                attachmentMetaData.put(attachmentRSN, readAttachmentMetaDataRow(rs));
+                attachmentRSNs.add(attachmentRSN);
             }
             rs.close();
-        } finally {
-            if (ps != null) {
-                try {
-                    ps.close();
-                } catch (Exception exp) {
-                    LOGGER.error("Error while closing prepared statement", exp);
+        } catch (SQLException exp) {
+            AmandaStatementCache.invalidate(connection, ps);
+            throw exp;
+        }
+        return attachmentRSNs;
+    }
+
+    /**
+     * Loads the description and type of several attachments with set-based queries of up to
+     * {@value #ATTACHMENT_BATCH_SIZE} attachments
+     *
+     * @return the folder RSN of each attachment attached to an AMANDA folder, their metadata is cached
+     */
+    public Map<Integer, Integer> prefetchAttachments(Collection<Integer> attachmentRSNs) throws SQLException {
+        Map<Integer, Integer> folderByAttachment = new LinkedHashMap<>();
+        List<Integer> rsns = new ArrayList<>(new LinkedHashSet<>(attachmentRSNs));
+        for (int start = 0; start < rsns.size(); start += ATTACHMENT_BATCH_SIZE) {
+            List<Integer> batch = rsns.subList(start, Math.min(start + ATTACHMENT_BATCH_SIZE, rsns.size()));
+            int parameterCount = ATTACHMENT_BATCH_SIZE;
+            for (int bucket : ATTACHMENT_BATCH_BUCKETS) {
+                if (batch.size() <= bucket) {
+                    parameterCount = bucket;
+                    break;
+                }
+            }
+            StringBuilder sql = new StringBuilder(ATTACHMENTS_SQL);
+            for (int i = 0; i < parameterCount; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(")");
+            PreparedStatement ps = AmandaStatementCache.prepare(connection, sql.toString());
+            try {
+                // The padding repeats the last RSN, which doesn't change the result
+                for (int i = 0; i < parameterCount; i++) {
+                    ps.setInt(i + 1, batch.get(Math.min(i, batch.size() - 1)));
+                }
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    Integer attachmentRSN = rs.getInt("AttachmentRSN");
+                    attachmentMetaData.put(attachmentRSN, readAttachmentMetaDataRow(rs));
+                    folderByAttachment.put(attachmentRSN, rs.getInt("FolderRSN"));
                 }
+                rs.close();
+            } catch (SQLException exp) {
+                AmandaStatementCache.invalidate(connection, ps);
+                throw exp;
             }
         }
-        return attachmentMetaData;
+        return folderByAttachment;
     }
 
     public FolderData getFolderData(Integer attachmentRSN) throws SQLException {
         if (folderData != null) {
             return folderData;
         }
-        PreparedStatement ps = null;
+        PreparedStatement ps = AmandaStatementCache.prepare(connection, FOLDER_SQL);
         try {
-            StringBuilder sql = new StringBuilder();
-            sql.append("Select F.FolderType, F.FolderSection, F.FolderRevision, F.FolderSequence , F.FolderYear ");
-            sql.append("From Folder F, Attachment A ");
-            sql.append("where a.attachmentRSN = ? ");
-            sql.append("and a.TableRSN=F.FolderRSN and a.TableName='Folder'");
-            ps = connection.prepareStatement(sql.toString());
             ps.setLong(1, attachmentRSN);
             ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                folderData = new FolderData();
-                folderData.setFolderRevision(rs.getString("FolderRevision"));
-                folderData.setFolderSequence(rs.getString("FolderSequence"));
-                folderData.setFolderYear(rs.getString("FolderYear"));
-                folderData.setFolderType(rs.getString("FolderType"));
-                folderData.setFolderSection(rs.getString("FolderSection"));
-            }
+            folderData = readFolderData(rs);
             rs.close();
-        } finally {
-            if (ps != null) {
-                try {
-                    ps.close();
-                } catch (Exception exp) {
-                    LOGGER.error("Error while closing prepared statement", exp);
-                }
-            }
+        } catch (SQLException exp) {
+            AmandaStatementCache.invalidate(connection, ps);
+            throw exp;
         }
         return folderData;
     }
@@ -106,112 +230,271 @@ public class AmandaMetaDataService {
             return parcelData;
         }
         parcelData = new ArrayList<>();
-        PreparedStatement ps = null;
+        PreparedStatement ps = AmandaStatementCache.prepare(connection, PARCEL_SQL);
         try {
-            StringBuilder sql = new StringBuilder();
-            sql.append("SELECT distinct replace(p.PropertyRoll,'-','') ParcelID ");
-            sql.append("FROM  Property as p , Folder as f, FolderProperty FP ");
-            sql.append("WHERE P.PropertyRSN = FP.PropertyRSN ");
-            sql.append("and F.FolderRSN=FP.FolderRSN and F.FolderRSN = ?");
-            ps = connection.prepareStatement(sql.toString());
             ps.setInt(1, folderRSN);
             ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                String parcelId = rs.getString("ParcelID");
-                if (parcelId != null && !parcelId.trim().isEmpty()) {
-                    parcelData.add(parcelId);
-                }
-            }
+            readParcels(rs, parcelData);
             rs.close();
-        } finally {
-            if (ps != null) {
-                try {
-                    ps.close();
-                } catch (Exception exp) {
-                    LOGGER.error("Error while closing prepared statement", exp);
-                }
-            }
+        } catch (SQLException exp) {
+            AmandaStatementCache.invalidate(connection, ps);
+            throw exp;
         }
         return parcelData;
     }
 
-    public String[][] getStandalonePermitData(FolderData folderData) throws SQLException {
+    /**
+     * @return the permits of the folder, the primary permit first. The list is empty when no permit was found.
+     */
+    public List<PermitRecord> getStandalonePermitData(FolderData folderData) throws SQLException {
         if (permitData != null) {
             return permitData;
         }
-        permitData = new String[600][600];
-        permitData[0][0] = "0";
-        PreparedStatement ps = null;
+        permitData = new ArrayList<>();
+        CallableStatement ps = AmandaStatementCache.prepareCall(connection, PERMIT_CALL);
         try {
-            StringBuilder sql = new StringBuilder();
-            sql.append("EXEC SNOCO_PRISM_Get_Permit_Complete_New ?, ?, ?, ?, ?");
-            ps = connection.prepareStatement(sql.toString());
             ps.setString(1, folderData.getFolderType());
             ps.setString(2, folderData.getFolderSection());
             ps.setString(3, folderData.getFolderRevision());
             ps.setString(4, folderData.getFolderSequence());
             ps.setString(5, folderData.getFolderYear());
             ResultSet rs = ps.executeQuery();
-            int i = 1;
-            while (rs.next()) {
-                for (int j = 0; j < 13; j++) {
-                    permitData[i][j] = rs.getString(j + 1);
-                }
-                permitData[0][0]= Integer.toString(i);
-                i++;
-            }
+            readPermits(rs, permitData);
             rs.close();
-        } finally {
-            if (ps != null) {
-                try {
-                    ps.close();
-                } catch (Exception exp) {
-                    LOGGER.error("Error while closing prepared statement", exp);
-                }
-            }
+        } catch (SQLException exp) {
+            AmandaStatementCache.invalidate(connection, ps);
+            throw exp;
         }
         return permitData;
     }
 
-    public String[][] getTaxMetaDataInfo(String parcelNumber) throws SQLException {
-        if (taxMetaData != null) {
-            return taxMetaData;
+    /**
+     * @return the property addresses of the parcel, the primary address first. The list is empty when no address was found.
+     */
+    public List<TaxAddressRecord> getTaxMetaDataInfo(String parcelNumber) throws SQLException {
+        return getTaxMetaDataInfo(Collections.singletonList(parcelNumber)).get(parcelNumber);
+    }
+
+    /**
+     * Fetches the property addresses of several parcels. Parcels that aren't cached yet are looked up in batches of
+     * {@value #ADDRESS_BATCH_SIZE} procedure calls sent in one round trip.
+     *
+     * @return the addresses keyed by parcel number, in the order of the given parcels
+     */
+    public Map<String, List<TaxAddressRecord>> getTaxMetaDataInfo(Collection<String> parcelNumbers) throws SQLException {
+        List<String> missingParcels = new ArrayList<>();
+        for (String parcelNumber : new LinkedHashSet<>(parcelNumbers)) {
+            if (!taxMetaData.containsKey(parcelNumber)) {
+                missingParcels.add(parcelNumber);
+            }
         }
-        taxMetaData = new String[600][20];
-        PreparedStatement ps = null;
-        try {
-            StringBuilder sql = new StringBuilder();
-            sql.append("EXEC SNOCO_PRISM_Get_Addresses ?");
-            ps = connection.prepareStatement(sql.toString());
-            ps.setString(1, parcelNumber);
-            ResultSet rs = ps.executeQuery();
-            int i = 1;
-            while (rs.next()) {
-                for (int j = 1; j < 8; j++) {
-                    taxMetaData[i][j] = rs.getString(j);
-                }
-                if (taxMetaData[i][2].trim().contentEquals("")) {
-                    taxMetaData[i][2] = "Address Unknown";
+        for (int start = 0; start < missingParcels.size(); start += ADDRESS_BATCH_SIZE) {
+            fetchTaxMetaData(missingParcels.subList(start, Math.min(start + ADDRESS_BATCH_SIZE, missingParcels.size())));
+        }
+        Map<String, List<TaxAddressRecord>> result = new LinkedHashMap<>();
+        for (String parcelNumber : parcelNumbers) {
+            result.put(parcelNumber, taxMetaData.get(parcelNumber));
+        }
+        return result;
+    }
+
+    private void fetchTaxMetaData(List<String> parcelNumbers) throws SQLException {
+        if (parcelNumbers.size() == 1) {
+            CallableStatement ps = AmandaStatementCache.prepareCall(connection, ADDRESS_CALL);
+            try {
+                ps.setString(1, parcelNumbers.get(0));
+                List<TaxAddressRecord> addresses = new ArrayList<>();
+                // The first result holds the addresses, a call without result has none
+                boolean isResultSet = ps.execute();
+                while (!isResultSet && ps.getUpdateCount() != -1) {
+                    isResultSet = ps.getMoreResults();
                 }
-                if (taxMetaData[i][3].trim().contentEquals("")) {
-                    taxMetaData[i][3] = "City Unknown";
+                if (isResultSet) {
+                    ResultSet rs = ps.getResultSet();
+                    addresses = readTaxAddresses(rs);
+                    rs.close();
                 }
-                if (taxMetaData[i][4].trim().contentEquals("")) {
-                    taxMetaData[i][4] = "Unk";
+                taxMetaData.put(parcelNumbers.get(0), addresses);
+            } catch (SQLException exp) {
+                AmandaStatementCache.invalidate(connection, ps);
+                throw exp;
+            }
+            return;
+        }
+        // One marked EXEC per parcel in a single batch, the addresses are assigned by the marker and not by position
+        // so a call without result or with an extra result doesn't shift the addresses to another parcel
+        StringBuilder sql = new StringBuilder("SET NOCOUNT ON; ");
+        for (int i = 0; i < parcelNumbers.size(); i++) {
+            sql.append(ADDRESS_MARKED_EXEC);
+        }
+        // Not cached, there is one text per number of parcels
+        PreparedStatement ps = AmandaStatementCache.prepareUncached(connection, sql.toString());
+        try {
+            for (int i = 0; i < parcelNumbers.size(); i++) {
+                ps.setString(2 * i + 1, parcelNumbers.get(i));
+                ps.setString(2 * i + 2, parcelNumbers.get(i));
+            }
+            String markedParcel = null;
+            boolean isResultSet = ps.execute();
+            while (isResultSet || ps.getUpdateCount() != -1) {
+                if (isResultSet) {
+                    ResultSet rs = ps.getResultSet();
+                    markedParcel = readMarkedTaxAddresses(rs, markedParcel);
+                    rs.close();
                 }
-                taxMetaData[0][0] = Integer.toString(i);
-                i++;
+                isResultSet = ps.getMoreResults();
+            }
+            // Procedure calls that didn't return anything have no addresses
+            for (String parcelNumber : parcelNumbers) {
+                taxMetaData.putIfAbsent(parcelNumber, new ArrayList<>());
             }
-            rs.close();
         } finally {
-            if (ps != null) {
-                try {
-                    ps.close();
-                } catch (Exception exp) {
-                    LOGGER.error("Error while closing prepared statement", exp);
+            try {
+                ps.close();
+            } catch (Exception exp) {
+                LOGGER.error("Error while closing prepared statement", exp);
+            }
+        }
+    }
+
+    /**
+     * Fetches the attachment, folder, permit, parcel and address data of an attachment in one round trip and caches
+     * it, the getters then return the cached data. Used when metadata.combinedFetch is enabled. The parcels are
+     * those of the attachment's folder.
+     */
+    public void fetchAttachmentData(Integer attachmentRSN) throws SQLException {
+        PreparedStatement ps = AmandaStatementCache.prepare(connection, COMBINED_SQL);
+        try {
+            ps.setInt(1, attachmentRSN);
+            int resultIndex = 0;
+            String markedParcel = null;
+            List<String> parcels = new ArrayList<>();
+            boolean isResultSet = ps.execute();
+            while (isResultSet || ps.getUpdateCount() != -1) {
+                if (isResultSet) {
+                    ResultSet rs = ps.getResultSet();
+                    switch (resultIndex++) {
+                        case 0:
+                            attachmentMetaData.put(attachmentRSN, readAttachmentMetaData(rs));
+                            break;
+                        case 1:
+                            folderData = readFolderData(rs);
+                            break;
+                        case 2:
+                            permitData = new ArrayList<>();
+                            readPermits(rs, permitData);
+                            break;
+                        case 3:
+                            readParcels(rs, parcels);
+                            parcelData = parcels;
+                            break;
+                        default:
+                            markedParcel = readMarkedTaxAddresses(rs, markedParcel);
+                    }
+                    rs.close();
                 }
+                isResultSet = ps.getMoreResults();
+            }
+            LOGGER.debug("EDMS:: Fetched the AMANDA data of AttachmentRSN {} in one round trip, {} results", attachmentRSN, resultIndex);
+        } catch (SQLException exp) {
+            AmandaStatementCache.invalidate(connection, ps);
+            throw exp;
+        }
+    }
+
+    private AttachmentMetaData readAttachmentMetaData(ResultSet rs) throws SQLException {
+        return rs.next() ? readAttachmentMetaDataRow(rs) : null;
+    }
+
+    private AttachmentMetaData readAttachmentMetaDataRow(ResultSet rs) throws SQLException {
+        AttachmentMetaData metaData = new AttachmentMetaData();
+        metaData.setSource("AMANDA Attachment");
+        metaData.setDescription(rs.getString("Description"));
+        metaData.setType(rs.getString("Type"));
+        return metaData;
+    }
+
+    private FolderData readFolderData(ResultSet rs) throws SQLException {
+        if (!rs.next()) {
+            return null;
+        }
+        FolderData folder = new FolderData();
+        folder.setFolderRevision(rs.getString("FolderRevision"));
+        folder.setFolderSequence(rs.getString("FolderSequence"));
+        folder.setFolderYear(rs.getString("FolderYear"));
+        folder.setFolderType(rs.getString("FolderType"));
+        folder.setFolderSection(rs.getString("FolderSection"));
+        return folder;
+    }
+
+    private void readPermits(ResultSet rs, List<PermitRecord> permits) throws SQLException {
+        while (rs.next()) {
+            // Columns 5 and 8 are not used by the adaptor
+            PermitRecord permit = new PermitRecord();
+            permit.setPermitType(rs.getString(1));
+            permit.setPermitTypeDescription(rs.getString(2));
+            permit.setPermitNumber(rs.getString(3));
+            permit.setFolderName(rs.getString(4));
+            permit.setParcelNumber(rs.getString(6));
+            permit.setFolderRSN(rs.getString(7));
+            permit.setLocation(rs.getString(9));
+            permit.setApplicationTrackingNumber(rs.getString(10));
+            permit.setSectionTownshipRange(rs.getString(11));
+            permit.setFolderDescription(rs.getString(12));
+            permit.setContact(rs.getString(13));
+            permits.add(permit);
+        }
+    }
+
+    private void readParcels(ResultSet rs, List<String> parcels) throws SQLException {
+        while (rs.next()) {
+            String parcelId = rs.getString("ParcelID");
+            if (parcelId != null && !parcelId.trim().isEmpty()) {
+                parcels.add(parcelId);
+            }
+        }
+    }
+
+    /**
+     * Reads a result of a batch where a marker with the parcel number precedes the addresses of each parcel. Only
+     * the first result after a marker holds the addresses, any other result is skipped.
+     *
+     * @return the parcel whose addresses are expected next, null when the next result isn't one
+     */
+    private String readMarkedTaxAddresses(ResultSet rs, String markedParcel) throws SQLException {
+        if (PARCEL_MARKER.equalsIgnoreCase(rs.getMetaData().getColumnLabel(1))) {
+            String parcelNumber = rs.next() ? rs.getString(1) : null;
+            if (parcelNumber != null) {
+                taxMetaData.put(parcelNumber, new ArrayList<>());
+            }
+            return parcelNumber;
+        }
+        if (markedParcel != null) {
+            taxMetaData.put(markedParcel, readTaxAddresses(rs));
+        }
+        return null;
+    }
+
+    private List<TaxAddressRecord> readTaxAddresses(ResultSet rs) throws SQLException {
+        List<TaxAddressRecord> addresses = new ArrayList<>();
+        while (rs.next()) {
+            // Columns 5 to 7 are not used by the adaptor
+            TaxAddressRecord address = new TaxAddressRecord();
+            address.setAlternateTaxId(rs.getString(1));
+            address.setAddress(rs.getString(2));
+            address.setCity(rs.getString(3));
+            address.setZip(rs.getString(4));
+            if (address.getAddress().trim().contentEquals("")) {
+                address.setAddress("Address Unknown");
+            }
+            if (address.getCity().trim().contentEquals("")) {
+                address.setCity("City Unknown");
+            }
+            if (address.getZip().trim().contentEquals("")) {
+                address.setZip("Unk");
             }
+            addresses.add(address);
         }
-        return taxMetaData;
+        return addresses;
     }
 }
@@ -0,0 +1,156 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements of the AMANDA queries, kept open and reused for as long as their connection is open. The
+ * statements of a connection are used under the same lock as the connection, see OTPutAttachmentService.
+ * At most statementCache.maxPerConnection statements are kept per connection, the least recently used one is
+ * closed first. The statements of closed connections are dropped when the next connection is seen.
+ * Statements are created with the fetch size of jdbc.fetchSize. Only SQL with a fixed text belongs in the cache,
+ * SQL built for a varying number of parameters would push the hot statements out, it is prepared with
+ * {@link #prepareUncached} and closed after use.
+ */
+public class AmandaStatementCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AmandaStatementCache.class);
+
+    // A statement references its connection, the closed connections are purged explicitly
+    private static final Map<Connection, Map<String, PreparedStatement>> STATEMENTS = new WeakHashMap<>();
+
+    private static final AtomicLong HIT_COUNT = new AtomicLong();
+
+    private static final AtomicLong PREPARE_COUNT = new AtomicLong();
+
+    private AmandaStatementCache() {
+        throw new Error("Contains only static methods");
+    }
+
+    public static PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        return getStatement(connection, sql, false);
+    }
+
+    /**
+     * @param sql a JDBC call escape, {call ...}
+     */
+    public static CallableStatement prepareCall(Connection connection, String sql) throws SQLException {
+        return (CallableStatement) getStatement(connection, sql, true);
+    }
+
+    /**
+     * Prepares a statement that isn't cached, the caller closes it
+     */
+    public static PreparedStatement prepareUncached(Connection connection, String sql) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(sql);
+        applyFetchSize(ps);
+        return ps;
+    }
+
+    /**
+     * Closes and forgets a statement, used when it failed and may no longer be usable
+     */
+    public static void invalidate(Connection connection, PreparedStatement ps) {
+        synchronized (STATEMENTS) {
+            Map<String, PreparedStatement> statements = STATEMENTS.get(connection);
+            if (statements != null) {
+                statements.values().remove(ps);
+            }
+        }
+        closeQuietly(ps);
+    }
+
+    public static long getHitCount() {
+        return HIT_COUNT.get();
+    }
+
+    public static long getPrepareCount() {
+        return PREPARE_COUNT.get();
+    }
+
+    private static PreparedStatement getStatement(Connection connection, String sql, boolean call) throws SQLException {
+        synchronized (STATEMENTS) {
+            Map<String, PreparedStatement> statements = STATEMENTS.get(connection);
+            PreparedStatement ps = statements != null ? statements.get(sql) : null;
+            if (ps != null && !ps.isClosed()) {
+                HIT_COUNT.incrementAndGet();
+                return ps;
+            }
+        }
+
+        PreparedStatement ps = call ? connection.prepareCall(sql) : connection.prepareStatement(sql);
+        applyFetchSize(ps);
+        PREPARE_COUNT.incrementAndGet();
+
+        List<PreparedStatement> evicted = new ArrayList<>();
+        synchronized (STATEMENTS) {
+            Map<String, PreparedStatement> statements = STATEMENTS.get(connection);
+            if (statements == null) {
+                purgeClosedConnections(evicted);
+                statements = new LinkedHashMap<>(16, 0.75f, true);
+                STATEMENTS.put(connection, statements);
+            }
+            PreparedStatement previous = statements.put(sql, ps);
+            if (previous != null) {
+                evicted.add(previous);
+            }
+            int maxStatements = EdmsProperties.getStatementCacheMaxPerConnection();
+            Iterator<PreparedStatement> eldest = statements.values().iterator();
+            while (statements.size() > maxStatements && eldest.hasNext()) {
+                PreparedStatement statement = eldest.next();
+                if (statement != ps) {
+                    eldest.remove();
+                    evicted.add(statement);
+                }
+            }
+        }
+        for (PreparedStatement statement : evicted) {
+            closeQuietly(statement);
+        }
+        return ps;
+    }
+
+    private static void applyFetchSize(PreparedStatement ps) throws SQLException {
+        int fetchSize = EdmsProperties.getJdbcFetchSize();
+        if (fetchSize > 0) {
+            ps.setFetchSize(fetchSize);
+        }
+    }
+
+    private static void purgeClosedConnections(List<PreparedStatement> evicted) {
+        Iterator<Map.Entry<Connection, Map<String, PreparedStatement>>> entries = STATEMENTS.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Connection, Map<String, PreparedStatement>> entry = entries.next();
+            boolean closed;
+            try {
+                closed = entry.getKey().isClosed();
+            } catch (SQLException exp) {
+                closed = true;
+            }
+            if (closed) {
+                evicted.addAll(entry.getValue().values());
+                entries.remove();
+            }
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (Exception exp) {
+            LOGGER.error("Error while closing prepared statement", exp);
+        }
+    }
+}
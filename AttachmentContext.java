@@ -0,0 +1,89 @@
+package amanda.edms;
+
+import com.opentext.livelink.service.docman.AttributeGroup;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable per-upload view of everything the adaptor needs to know about an attachment. The AMANDA data and
+ * the category groups built from it are resolved once and shared by the folder hierarchy and the document
+ * metadata steps. The category groups must not be modified after the context is created.
+ */
+public class AttachmentContext {
+
+    private final Integer attachmentRSN;
+
+    private final AttachmentMetaData attachmentMetaData;
+
+    private final FolderData folderData;
+
+    private final List<PermitRecord> permits;
+
+    private final List<String> parcels;
+
+    private final AttributeGroup permitCategory;
+
+    private final AttributeGroup taxAccountCategory;
+
+    AttachmentContext(Integer attachmentRSN, AttachmentMetaData attachmentMetaData, FolderData folderData, List<PermitRecord> permits,
+                      List<String> parcels, AttributeGroup permitCategory, AttributeGroup taxAccountCategory) {
+        this.attachmentRSN = attachmentRSN;
+        this.attachmentMetaData = attachmentMetaData;
+        this.folderData = folderData;
+        this.permits = Collections.unmodifiableList(permits);
+        this.parcels = Collections.unmodifiableList(parcels);
+        this.permitCategory = permitCategory;
+        this.taxAccountCategory = taxAccountCategory;
+    }
+
+    /**
+     * Returns a context for another attachment of the same AMANDA folder, sharing the folder level data
+     */
+    public AttachmentContext forAttachment(Integer otherAttachmentRSN, AttachmentMetaData otherAttachmentMetaData) {
+        return new AttachmentContext(otherAttachmentRSN, otherAttachmentMetaData, folderData, permits, parcels, permitCategory, taxAccountCategory);
+    }
+
+    public Integer getAttachmentRSN() {
+        return attachmentRSN;
+    }
+
+    public AttachmentMetaData getAttachmentMetaData() {
+        return attachmentMetaData;
+    }
+
+    public FolderData getFolderData() {
+        return folderData;
+    }
+
+    public List<PermitRecord> getPermits() {
+        return permits;
+    }
+
+    public String getPermitNumber() {
+        return permits.get(0).getPermitNumber();
+    }
+
+    public String getParcelNumber() {
+        return permits.get(0).getParcelNumber();
+    }
+
+    public Integer getFolderRSN() {
+        return Integer.valueOf(permits.get(0).getFolderRSN());
+    }
+
+    public List<String> getParcels() {
+        return parcels;
+    }
+
+    public AttributeGroup getPermitCategory() {
+        return permitCategory;
+    }
+
+    /**
+     * @return the Tax Account category or null when the folder has no tax account data
+     */
+    public AttributeGroup getTaxAccountCategory() {
+        return taxAccountCategory;
+    }
+}
@@ -0,0 +1,49 @@
+package amanda.edms;
+
+/**
+ * POJO class describing one attachment of a bulk upload
+ */
+public class AttachmentUpload {
+
+    private Integer attachmentRSN;
+
+    private OTFileContent fileContent;
+
+    private Long documentId;
+
+    public AttachmentUpload() {
+    }
+
+    public AttachmentUpload(Integer attachmentRSN, OTFileContent fileContent, Long documentId) {
+        this.attachmentRSN = attachmentRSN;
+        this.fileContent = fileContent;
+        this.documentId = documentId;
+    }
+
+    public Integer getAttachmentRSN() {
+        return attachmentRSN;
+    }
+
+    public void setAttachmentRSN(Integer attachmentRSN) {
+        this.attachmentRSN = attachmentRSN;
+    }
+
+    public OTFileContent getFileContent() {
+        return fileContent;
+    }
+
+    public void setFileContent(OTFileContent fileContent) {
+        this.fileContent = fileContent;
+    }
+
+    /**
+     * @return the EDMS ID of the existing document to add a version to, null for a new document
+     */
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(Long documentId) {
+        this.documentId = documentId;
+    }
+}
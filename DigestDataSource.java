@@ -0,0 +1,56 @@
+package amanda.edms;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes of the content and computes their SHA-256 while it is uploaded. Every call of
+ * {@link #getInputStream()} starts a new digest, so the result is the one of the last attempt.
+ */
+public class DigestDataSource implements DataSource {
+
+    private final DataSource dataSource;
+
+    private DigestingInputStream digestStream;
+
+    public DigestDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        digestStream = new DigestingInputStream(dataSource.getInputStream());
+        return digestStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new UnsupportedOperationException("Not implemented");
+    }
+
+    @Override
+    public String getContentType() {
+        return dataSource.getContentType();
+    }
+
+    @Override
+    public String getName() {
+        return dataSource.getName();
+    }
+
+    /**
+     * @return the hex SHA-256 of the content read so far, null when it wasn't read
+     */
+    public String getHash() {
+        return digestStream != null ? digestStream.getHash() : null;
+    }
+
+    /**
+     * @return the number of bytes read so far
+     */
+    public long getByteCount() {
+        return digestStream != null ? digestStream.getByteCount() : 0L;
+    }
+}
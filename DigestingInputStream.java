@@ -0,0 +1,76 @@
+package amanda.edms;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Counts the bytes read through it and computes their SHA-256 on the fly
+ */
+public class DigestingInputStream extends FilterInputStream {
+
+    private final MessageDigest digest = OTContentHashStore.newDigest();
+
+    private long byteCount;
+
+    private String hash;
+
+    public DigestingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value != -1) {
+            digest.update((byte) value);
+            byteCount++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            digest.update(buffer, offset, read);
+            byteCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        // Skipped bytes must be part of the digest
+        byte[] buffer = new byte[(int) Math.min(8192L, Math.max(1L, count))];
+        long skipped = 0;
+        while (skipped < count) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return the hex SHA-256 of the bytes read, the digest is complete once the stream is read to the end
+     */
+    public String getHash() {
+        if (hash == null) {
+            hash = OTContentHashStore.toHex(digest.digest());
+        }
+        return hash;
+    }
+}
@@ -3,6 +3,7 @@ package amanda.edms;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.List;
@@ -26,6 +27,7 @@ public class EdmsProperties {
         } catch (Exception exp) {
             LOGGER.error("Error while loading edms.properties file", exp);
         }
+        validate();
     }
 
     public static String getServerUsername() {
@@ -76,6 +78,295 @@ public class EdmsProperties {
         return Arrays.asList(PROPERTIES.getProperty("openText.noTaxAccountFolderArray").split("\\|"));
     }
 
+    public static long getAuthTokenLifetimeMillis() {
+        return getLongProperty("auth.tokenLifetimeMinutes", 25L) * 60L * 1000L;
+    }
+
+    public static long getAuthRefreshAheadMillis() {
+        return getLongProperty("auth.refreshAheadSeconds", 60L) * 1000L;
+    }
+
+    public static int getPortPoolMaxPerToken() {
+        return (int) getLongProperty("portPool.maxPerToken", 8L);
+    }
+
+    public static long getPortPoolIdleTimeoutMillis() {
+        return getLongProperty("portPool.idleTimeoutSeconds", 300L) * 1000L;
+    }
+
+    public static long getPortPoolBorrowTimeoutMillis() {
+        return getLongProperty("portPool.borrowTimeoutSeconds", 30L) * 1000L;
+    }
+
+    public static long getCategoryTemplateTtlMillis() {
+        return getLongProperty("categoryTemplate.ttlMinutes", 60L) * 60L * 1000L;
+    }
+
+    public static int getFolderCacheMaxEntries() {
+        return (int) getLongProperty("folderCache.maxEntries", 5000L);
+    }
+
+    /**
+     * "local" coalesces folder creation within this JVM, "database" additionally locks through the AMANDA database
+     */
+    public static boolean isDatabaseFolderLock() {
+        return "database".equalsIgnoreCase(trimToNull(PROPERTIES.getProperty("folderLock.mode")));
+    }
+
+    public static String getFolderLockTable() {
+        String tableName = trimToNull(PROPERTIES.getProperty("folderLock.table"));
+        return tableName != null ? tableName.trim() : "EDMS_FOLDER_LOCK";
+    }
+
+    public static long getFolderLockTimeoutMillis() {
+        return getLongProperty("folderLock.timeoutSeconds", 60L) * 1000L;
+    }
+
+    /**
+     * Age after which a lock row is taken over, shorter than folderLock.timeoutSeconds so waiters don't time out
+     * on a row left by a crashed node. The holder refreshes its row every third of this age.
+     */
+    public static long getFolderLockStaleMillis() {
+        long staleMillis = getLongProperty("folderLock.staleSeconds", 30L) * 1000L;
+        long timeoutMillis = getFolderLockTimeoutMillis();
+        return staleMillis < timeoutMillis ? staleMillis : timeoutMillis / 2L;
+    }
+
+    public static int getAsyncMaxConcurrency() {
+        return (int) getLongProperty("async.maxConcurrency", 8L);
+    }
+
+    public static int getAsyncQueueSize() {
+        return (int) getLongProperty("async.queueSize", 1000L);
+    }
+
+    public static boolean isAsyncVirtualThreads() {
+        return getBooleanProperty("async.virtualThreads", true);
+    }
+
+    public static long getAsyncTimeoutMillis() {
+        return getLongProperty("async.timeoutSeconds", 600L) * 1000L;
+    }
+
+    /**
+     * Work list query of the bulk loader, returns AttachmentRSN and the FolderRSN of the attachment
+     */
+    public static String getBulkWorkListSql() {
+        String sql = trimToNull(PROPERTIES.getProperty("bulk.workListSql"));
+        return sql != null ? sql : "SELECT AttachmentRSN, TableRSN FROM Attachment WHERE TableName = 'Folder' ORDER BY TableRSN, AttachmentRSN";
+    }
+
+    public static int getBulkWorkers() {
+        return (int) getLongProperty("bulk.workers", 4L);
+    }
+
+    public static long getBulkReportIntervalMillis() {
+        return getLongProperty("bulk.reportIntervalSeconds", 30L) * 1000L;
+    }
+
+    /**
+     * Journal directory of the upload outbox, holds the spooled content and the outbox log
+     */
+    public static String getOutboxDir() {
+        String dir = trimToNull(PROPERTIES.getProperty("outbox.dir"));
+        return dir != null ? dir.trim() : new File(System.getProperty("java.io.tmpdir"), "edms-outbox").getPath();
+    }
+
+    public static int getOutboxWorkers() {
+        return (int) getLongProperty("outbox.workers", 2L);
+    }
+
+    public static long getOutboxRetryDelayMillis() {
+        return getLongProperty("outbox.retryDelaySeconds", 30L) * 1000L;
+    }
+
+    public static long getOutboxMaxRetryDelayMillis() {
+        return getLongProperty("outbox.maxRetryDelaySeconds", 3600L) * 1000L;
+    }
+
+    /**
+     * Attempts after which an upload job of the outbox is given up
+     */
+    public static int getOutboxMaxAttempts() {
+        return (int) Math.max(1L, getLongProperty("outbox.maxAttempts", 10L));
+    }
+
+    /**
+     * Statement that stores the EDMS ID of an uploaded attachment, parameter 1 is the EDMS ID and parameter 2
+     * the AttachmentRSN
+     */
+    public static String getOutboxWriteBackSql() {
+        return trimToNull(PROPERTIES.getProperty("outbox.writeBackSql"));
+    }
+
+    public static boolean isContentCacheEnabled() {
+        return getBooleanProperty("contentCache.enabled", false);
+    }
+
+    /**
+     * Parent of the cache directory, the cache only writes to and clears its own subdirectory
+     */
+    public static String getContentCacheDir() {
+        String dir = trimToNull(PROPERTIES.getProperty("contentCache.dir"));
+        return dir != null ? dir.trim() : System.getProperty("java.io.tmpdir");
+    }
+
+    public static long getContentCacheMaxBytes() {
+        return getLongProperty("contentCache.maxMegabytes", 1024L) * 1024L * 1024L;
+    }
+
+    public static int getContentCacheMaxEntries() {
+        return (int) getLongProperty("contentCache.maxEntries", 1000L);
+    }
+
+    /**
+     * Pass the downloaded content through to AMANDA instead of spooling it to a temp file first
+     */
+    public static boolean isDownloadStreaming() {
+        return getBooleanProperty("download.streaming", false);
+    }
+
+    /**
+     * Fixed upload chunk size in bytes, 0 to choose it from the file size
+     */
+    public static int getUploadChunkSize() {
+        return (int) getLongProperty("upload.chunkSize", 0L);
+    }
+
+    public static int getUploadMinChunkSize() {
+        return (int) getLongProperty("upload.minChunkSize", 16384L);
+    }
+
+    public static int getUploadMaxChunkSize() {
+        return (int) getLongProperty("upload.maxChunkSize", 1048576L);
+    }
+
+    public static boolean isUploadAutoTune() {
+        return getBooleanProperty("upload.autoTune", false);
+    }
+
+    /**
+     * Content of unknown length is spooled in memory up to this size and to a temp file beyond it
+     */
+    public static long getUploadSpoolMemoryBytes() {
+        return getLongProperty("upload.spoolMemoryKilobytes", 4096L) * 1024L;
+    }
+
+    /**
+     * Skip the upload of a new version when its content is the same as the last uploaded content
+     */
+    public static boolean isDedupEnabled() {
+        return getBooleanProperty("dedup.enabled", false);
+    }
+
+    public static String getContentHashTable() {
+        String table = trimToNull(PROPERTIES.getProperty("dedup.table"));
+        return table != null ? table.trim() : "EDMS_CONTENT_HASH";
+    }
+
+    /**
+     * Verify the size and SHA-256 of uploads and downloads while they are transferred
+     */
+    public static boolean isChecksumVerify() {
+        return getBooleanProperty("checksum.verify", false);
+    }
+
+    /**
+     * Fetch size of the AMANDA queries, 0 for the driver default
+     */
+    public static int getJdbcFetchSize() {
+        return (int) getLongProperty("jdbc.fetchSize", 0L);
+    }
+
+    public static int getStatementCacheMaxPerConnection() {
+        return (int) getLongProperty("statementCache.maxPerConnection", 64L);
+    }
+
+    /**
+     * Fetch the AMANDA data of an attachment in one round trip instead of one query per kind of data
+     */
+    public static boolean isMetadataCombinedFetch() {
+        return getBooleanProperty("metadata.combinedFetch", false);
+    }
+
+    /**
+     * Classpath directory of the bundled OpenText WSDLs
+     */
+    public static String getWsdlClasspathDir() {
+        String dir = trimToNull(PROPERTIES.getProperty("wsdl.classpathDir"));
+        if (dir == null) {
+            return "wsdl/";
+        }
+        return dir.trim().endsWith("/") ? dir.trim() : dir.trim() + "/";
+    }
+
+    public static boolean isServicesEagerWarmUp() {
+        return getBooleanProperty("services.eagerWarmUp", false);
+    }
+
+    /**
+     * @return the http.keepAlive setting of the JVM, null when it isn't configured and the JVM default applies
+     */
+    public static Boolean getTransportKeepAlive() {
+        String value = trimToNull(PROPERTIES.getProperty("transport.keepAlive"));
+        return value != null ? Boolean.valueOf(value.trim()) : null;
+    }
+
+    /**
+     * Idle keep-alive connections kept per endpoint by the JVM, 0 when it isn't configured and the JVM default applies
+     */
+    public static int getTransportMaxConnections() {
+        return (int) getLongProperty("transport.maxConnections", 0L);
+    }
+
+    public static long getTransportConnectTimeoutMillis() {
+        return getLongProperty("transport.connectTimeoutSeconds", 30L) * 1000L;
+    }
+
+    /**
+     * Read timeout of the OpenText requests, 0 waits forever
+     */
+    public static long getTransportRequestTimeoutMillis() {
+        return getLongProperty("transport.requestTimeoutSeconds", 300L) * 1000L;
+    }
+
+    /**
+     * Read timeout of the uploads, 0 waits forever. Storing a large upload may take longer than other requests.
+     */
+    public static long getTransportUploadTimeoutMillis() {
+        return getLongProperty("transport.uploadTimeoutSeconds", 0L) * 1000L;
+    }
+
+    /**
+     * Reports settings that contradict each other when the properties are loaded
+     */
+    private static void validate() {
+        long staleSeconds = getLongProperty("folderLock.staleSeconds", 30L);
+        long timeoutSeconds = getFolderLockTimeoutMillis() / 1000L;
+        if (staleSeconds >= timeoutSeconds) {
+            LOGGER.error("folderLock.staleSeconds ({}) must be shorter than folderLock.timeoutSeconds ({}), using {}",
+                    staleSeconds, timeoutSeconds, getFolderLockStaleMillis() / 1000L);
+        }
+    }
+
+    private static boolean getBooleanProperty(String name, boolean defaultValue) {
+        String value = trimToNull(PROPERTIES.getProperty(name));
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = trimToNull(PROPERTIES.getProperty(name));
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException exp) {
+            LOGGER.error("Invalid value '{}' for property {}, using default {}", value, name, defaultValue);
+            return defaultValue;
+        }
+    }
+
     private static String trimToNull(String value) {
         if (value != null && value.trim().length() > 0) {
             return value;
@@ -0,0 +1,57 @@
+package amanda.edms;
+
+import javax.activation.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Data source to upload a local file to OpenText. Every call of {@link #getInputStream()} opens a new read-only
+ * channel on the file, so unlike {@link InputStreamDataSource} the content can be sent again when an upload is
+ * retried.
+ */
+public class FileChannelDataSource implements DataSource {
+
+    private final File file;
+
+    private final String name;
+
+    private final String contentType;
+
+    public FileChannelDataSource(String name, File file, String contentType) {
+        this.name = name;
+        this.file = file;
+        this.contentType = contentType;
+    }
+
+    /**
+     * The stream is registered with the {@link OTAbortHandle} of an asynchronous upload
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return OTAbortHandle.register(Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ)));
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new UnsupportedOperationException("Not implemented");
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType != null ? contentType : "*/*";
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return file.length();
+    }
+}
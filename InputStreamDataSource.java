@@ -19,9 +19,12 @@ public class InputStreamDataSource implements DataSource {
         this.inputStream = inputStream;
     }
 
+    /**
+     * The stream is registered with the {@link OTAbortHandle} of an asynchronous upload
+     */
     @Override
     public InputStream getInputStream() throws IOException {
-        return inputStream;
+        return OTAbortHandle.register(inputStream);
     }
 
     @Override
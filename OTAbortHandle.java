@@ -0,0 +1,135 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aborts the transfer of an asynchronous operation. {@link OTAsyncExecutor} binds a handle to the worker thread
+ * while the operation runs, the streams of the transfer are registered with it where they are opened. Cancelling
+ * or timing out the operation closes them, which fails a read or write blocked in the transfer. Interrupting the
+ * worker alone doesn't stop socket I/O. Without a bound handle registering does nothing.
+ */
+public class OTAbortHandle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTAbortHandle.class);
+
+    private static final ThreadLocal<OTAbortHandle> CURRENT = new ThreadLocal<>();
+
+    private final List<Closeable> closeables = new ArrayList<>();
+
+    private boolean aborted;
+
+    /**
+     * Binds the handle to the current thread until {@link #unbind()}
+     */
+    public void bind() {
+        CURRENT.set(this);
+    }
+
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Closes the stream when the operation of the current thread is aborted
+     */
+    public static <T extends Closeable> T register(T closeable) {
+        OTAbortHandle handle = CURRENT.get();
+        if (handle != null) {
+            handle.add(closeable);
+        }
+        return closeable;
+    }
+
+    /**
+     * Registers the stream, reads fail once it is aborted even when closing the stream doesn't stop them
+     */
+    public static InputStream register(InputStream in) {
+        OTAbortHandle handle = CURRENT.get();
+        if (handle == null) {
+            return in;
+        }
+        AbortableInputStream abortable = new AbortableInputStream(in);
+        handle.add(abortable);
+        return abortable;
+    }
+
+    /**
+     * Closes the registered streams, streams registered later are closed right away
+     */
+    public void abort() {
+        List<Closeable> toClose;
+        synchronized (this) {
+            aborted = true;
+            toClose = new ArrayList<>(closeables);
+            closeables.clear();
+        }
+        for (Closeable closeable : toClose) {
+            closeQuietly(closeable);
+        }
+    }
+
+    private void add(Closeable closeable) {
+        synchronized (this) {
+            if (!aborted) {
+                closeables.add(closeable);
+                return;
+            }
+        }
+        closeQuietly(closeable);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException | RuntimeException exp) {
+            LOGGER.error("Error while aborting EDMS transfer", exp);
+        }
+    }
+
+    private static class AbortableInputStream extends FilterInputStream {
+
+        private volatile boolean closed;
+
+        AbortableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkOpen();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            checkOpen();
+            return super.read(buffer, offset, length);
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            checkOpen();
+            return super.skip(count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+
+        private void checkOpen() throws IOException {
+            if (closed) {
+                throw new IOException("EDMS transfer aborted");
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Bounded executor for the asynchronous OpenTextClient operations. Uses virtual threads when async.virtualThreads
+ * is enabled and the JVM supports them, otherwise a fixed pool of daemon threads. At most async.maxConcurrency
+ * operations run at the same time.
+ */
+public class OTAsyncExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTAsyncExecutor.class);
+
+    private static final OTAsyncExecutor INSTANCE = new OTAsyncExecutor();
+
+    private final ExecutorService executor;
+
+    private final Semaphore permits;
+
+    private final ScheduledThreadPoolExecutor timeoutScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "edms-async-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private OTAsyncExecutor() {
+        // A completed operation cancels its timeout, drop it from the queue instead of keeping it until it's due
+        timeoutScheduler.setRemoveOnCancelPolicy(true);
+        int maxConcurrency = EdmsProperties.getAsyncMaxConcurrency();
+        this.permits = new Semaphore(maxConcurrency);
+        ExecutorService virtualThreadExecutor = EdmsProperties.isAsyncVirtualThreads() ? createVirtualThreadExecutor() : null;
+        if (virtualThreadExecutor != null) {
+            LOGGER.info("EDMS:: Async operations run on virtual threads, max concurrency: {}", maxConcurrency);
+            this.executor = virtualThreadExecutor;
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(EdmsProperties.getAsyncQueueSize()), runnable -> {
+                Thread thread = new Thread(runnable, "edms-async-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+        }
+    }
+
+    public static OTAsyncExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs the task asynchronously. When the returned future is cancelled or the timeout elapses the worker is
+     * interrupted, the streams registered with the {@link OTAbortHandle} of the task are closed and the abort action
+     * is run to stop the transfer in flight.
+     *
+     * @param timeoutMillis          0 for no timeout
+     * @param abortAction            called when the operation is cancelled or timed out, may be null
+     * @param discardedResultHandler receives results that arrive after the future was cancelled or timed out, may be null
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task, long timeoutMillis, Runnable abortAction, Consumer<T> discardedResultHandler) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        OTAbortHandle abortHandle = new OTAbortHandle();
+        Future<?> execution;
+        try {
+            execution = executor.submit(() -> run(task, result, abortHandle, discardedResultHandler));
+        } catch (RuntimeException exp) {
+            // RejectedExecutionException when the queue is full
+            result.completeExceptionally(exp);
+            return result;
+        }
+        ScheduledFuture<?> timeout = timeoutMillis > 0 ? timeoutScheduler.schedule(() -> result.completeExceptionally(
+                new TimeoutException("EDMS operation timed out after " + timeoutMillis + " ms")), timeoutMillis, TimeUnit.MILLISECONDS) : null;
+        result.whenComplete((value, exp) -> {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (exp instanceof CancellationException || exp instanceof TimeoutException) {
+                execution.cancel(true);
+                abortHandle.abort();
+                if (abortAction != null) {
+                    try {
+                        abortAction.run();
+                    } catch (RuntimeException abortExp) {
+                        LOGGER.error("Error while aborting EDMS operation", abortExp);
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    private <T> void run(Callable<T> task, CompletableFuture<T> result, OTAbortHandle abortHandle, Consumer<T> discardedResultHandler) {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(exp);
+            return;
+        }
+        abortHandle.bind();
+        try {
+            T value = task.call();
+            if (!result.complete(value) && value != null && discardedResultHandler != null) {
+                discardedResultHandler.accept(value);
+            }
+        } catch (Throwable exp) {
+            result.completeExceptionally(exp);
+        } finally {
+            OTAbortHandle.unbind();
+            permits.release();
+        }
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            // Looked up reflectively, the adaptor is built for Java 8
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException exp) {
+            LOGGER.info("EDMS:: Virtual threads are not available on this JVM, using a thread pool");
+            return null;
+        }
+    }
+}
@@ -4,7 +4,13 @@ import com.opentext.livelink.service.core.Authentication;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.xml.soap.SOAPFault;
+import javax.xml.ws.soap.SOAPFaultException;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Service class perform OpenText authentication
@@ -13,6 +19,8 @@ public class OTAuthService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OTAuthService.class);
 
+    private static final ConcurrentMap<String, OTAuthTokenManager> TOKEN_MANAGERS = new ConcurrentHashMap<>();
+
     private OTAuthService() {
         throw new Error("Contains only static methods");
     }
@@ -24,4 +32,46 @@ public class OTAuthService {
         return authToken;
     }
 
+    /**
+     * Returns the shared token manager for the given credentials. The managers are keyed by a SHA-256 of the
+     * credentials, the password is only kept by the manager itself.
+     */
+    public static OTAuthTokenManager getTokenManager(String username, String password) {
+        return TOKEN_MANAGERS.computeIfAbsent(credentialsKey(username, password), key -> new OTAuthTokenManager(username, password));
+    }
+
+    /**
+     * Checks whether the given exception (or one of its causes) is an OpenText fault raised for an expired or
+     * invalid authentication token. Only the fault code is matched, a fault text that mentions authentication may
+     * come from a call that must not be repeated.
+     */
+    public static boolean isAuthenticationFault(Throwable exp) {
+        for (Throwable cause = exp; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SOAPFaultException) {
+                SOAPFault fault = ((SOAPFaultException) cause).getFault();
+                if (fault != null && isAuthenticationFaultCode(fault.getFaultCode())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String credentialsKey(String username, String password) {
+        MessageDigest digest = OTContentHashStore.newDigest();
+        digest.update(String.valueOf(username).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+        return OTContentHashStore.toHex(digest.digest());
+    }
+
+    private static boolean isAuthenticationFaultCode(String faultCode) {
+        if (faultCode == null) {
+            return false;
+        }
+        // The code is qualified by a namespace prefix, e.g. s:Core.LoginFailed
+        String code = faultCode.substring(faultCode.indexOf(':') + 1);
+        return code.equals("Core.LoginFailed") || code.startsWith("Core.InvalidAuthentication")
+                || code.equals("Core.SessionExpired");
+    }
 }
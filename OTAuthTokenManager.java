@@ -0,0 +1,163 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the OpenText authentication token of one user and refreshes it in the background before it expires.
+ * Instances are shared by all threads, use {@link OTAuthService#getTokenManager(String, String)} to obtain one.
+ */
+public class OTAuthTokenManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTAuthTokenManager.class);
+
+    private static final ScheduledExecutorService REFRESH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "edms-auth-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String username;
+
+    private final String password;
+
+    private final long lifetimeMillis;
+
+    private final long refreshAheadMillis;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    private volatile String authToken;
+
+    private volatile long expiresAt;
+
+    // Set whenever the token is handed out, background refresh is skipped for tokens nobody used
+    private volatile boolean usedSinceLogin;
+
+    private ScheduledFuture<?> refreshTask;
+
+    OTAuthTokenManager(String username, String password) {
+        this.username = username;
+        this.password = password;
+        this.lifetimeMillis = EdmsProperties.getAuthTokenLifetimeMillis();
+        this.refreshAheadMillis = Math.min(EdmsProperties.getAuthRefreshAheadMillis(), lifetimeMillis / 2);
+    }
+
+    public String getToken() throws MalformedURLException {
+        String token = authToken;
+        if (token != null && System.currentTimeMillis() < expiresAt) {
+            hitCount.incrementAndGet();
+            usedSinceLogin = true;
+            return token;
+        }
+        synchronized (this) {
+            if (authToken != null && System.currentTimeMillis() < expiresAt) {
+                hitCount.incrementAndGet();
+                usedSinceLogin = true;
+                return authToken;
+            }
+            missCount.incrementAndGet();
+            login();
+            usedSinceLogin = true;
+            return authToken;
+        }
+    }
+
+    /**
+     * Drops the given token if it is still the cached one, the next {@link #getToken()} will log in again.
+     */
+    public synchronized void invalidate(String staleToken) {
+        if (staleToken != null && staleToken.equals(authToken)) {
+            LOGGER.debug("EDMS:: Invalidating cached OT auth token for user {}", username);
+            authToken = null;
+            expiresAt = 0;
+            cancelRefresh();
+        }
+    }
+
+    /**
+     * Runs the call with the cached auth token. When OpenText rejects the token the token and its pooled ports are
+     * dropped and the call is retried once with a fresh login. Expired tokens are rejected on the first SOAP call
+     * of an operation, before any content is transferred.
+     */
+    public <T> T callWithAuthRetry(AuthenticatedCall<T> call) throws Exception {
+        String token = getToken();
+        try {
+            return call.call(token);
+        } catch (Exception exp) {
+            if (!OTAuthService.isAuthenticationFault(exp)) {
+                throw exp;
+            }
+            LOGGER.warn("EDMS:: OT auth token rejected, re-authenticating and retrying once");
+            invalidate(token);
+            OpenTextServices.evictPorts(token);
+            return call.call(getToken());
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * An OpenText operation that needs an auth token
+     */
+    public interface AuthenticatedCall<T> {
+        T call(String authToken) throws Exception;
+    }
+
+    private void login() throws MalformedURLException {
+        long loginTime = System.currentTimeMillis();
+        authToken = OTAuthService.authenticate(username, password);
+        expiresAt = loginTime + lifetimeMillis;
+        usedSinceLogin = false;
+        cancelRefresh();
+        refreshTask = REFRESH_EXECUTOR.schedule(this::refresh, lifetimeMillis - refreshAheadMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void refresh() {
+        if (authToken == null) {
+            return;
+        }
+        if (!usedSinceLogin) {
+            // Idle token, let it expire and log in again on the next request
+            LOGGER.debug("EDMS:: Skipping refresh of unused OT auth token for user {}", username);
+            return;
+        }
+        try {
+            login();
+            refreshCount.incrementAndGet();
+            LOGGER.debug("EDMS:: Refreshed OT auth token for user {} (hits: {}, misses: {}, refreshes: {})",
+                    username, hitCount.get(), missCount.get(), refreshCount.get());
+        } catch (Exception exp) {
+            // Keep the current token until it expires, the next caller will retry the login
+            LOGGER.warn("EDMS:: Background refresh of OT auth token failed for user {}", username, exp);
+        }
+    }
+
+    private void cancelRefresh() {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+            refreshTask = null;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk migration of AMANDA attachments into OpenText. The work list is read from the AMANDA database and grouped
+ * by folder, so the folder, permit, parcel and tax data and the OpenText folders are resolved once per folder and
+ * the attachment descriptions are fetched with one query per folder.
+ * Folders are uploaded by parallel workers. Every uploaded attachment is appended to a checkpoint file as
+ * "AttachmentRSN,EDMS ID" and synced, attachments found in the checkpoint file are skipped when the load is
+ * restarted. An attachment uploaded but not checkpointed before a crash is found by its document name and
+ * checkpointed without uploading it again.
+ */
+public class OTBulkLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTBulkLoader.class);
+
+    private final Connection connection;
+
+    private final OTContentProvider contentProvider;
+
+    private final File checkpointFile;
+
+    private final int workers;
+
+    private final OTAuthTokenManager tokenManager;
+
+    private final AtomicInteger uploadedCount = new AtomicInteger();
+
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    private final AtomicInteger skippedCount = new AtomicInteger();
+
+    private final AtomicLong uploadedBytes = new AtomicLong();
+
+    private FileOutputStream checkpointStream;
+
+    private Writer checkpointWriter;
+
+    private int totalCount;
+
+    private long startTime;
+
+    public OTBulkLoader(Connection connection, OTContentProvider contentProvider, File checkpointFile) {
+        this(connection, contentProvider, checkpointFile, EdmsProperties.getBulkWorkers());
+    }
+
+    /**
+     * @param connection      AMANDA connection, shared by the workers
+     * @param contentProvider opens the content of an attachment
+     * @param checkpointFile  progress file, created when it doesn't exist
+     * @param workers         number of folders uploaded in parallel
+     */
+    public OTBulkLoader(Connection connection, OTContentProvider contentProvider, File checkpointFile, int workers) {
+        this.connection = connection;
+        this.contentProvider = contentProvider;
+        this.checkpointFile = checkpointFile;
+        this.workers = workers;
+        this.tokenManager = OTAuthService.getTokenManager(EdmsProperties.getServerUsername(), EdmsProperties.getServerPassword());
+    }
+
+    /**
+     * Loads the work list of bulk.workListSql and uploads it
+     */
+    public void run() throws SQLException, IOException, InterruptedException {
+        run(EdmsProperties.getBulkWorkListSql());
+    }
+
+    /**
+     * Loads the work list of the given query and uploads it. The query must return AttachmentRSN and FolderRSN.
+     */
+    public void run(String workListSql) throws SQLException, IOException, InterruptedException {
+        // A last line without line end was torn by a crash, even when it looks complete
+        truncateTornLine();
+        Set<Integer> completed = readCheckpoint();
+        Map<Integer, List<Integer>> attachmentsByFolder = loadWorkList(workListSql, completed);
+        LOGGER.info("EDMS:: Bulk load of {} attachments in {} folders with {} workers, {} already done",
+                totalCount, attachmentsByFolder.size(), workers, skippedCount.get());
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long reportInterval = EdmsProperties.getBulkReportIntervalMillis();
+        checkpointStream = new FileOutputStream(checkpointFile, true);
+        checkpointWriter = new OutputStreamWriter(checkpointStream, StandardCharsets.UTF_8);
+        startTime = System.currentTimeMillis();
+        try {
+            reporter.scheduleAtFixedRate(this::reportProgress, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+            for (Map.Entry<Integer, List<Integer>> folder : attachmentsByFolder.entrySet()) {
+                executor.execute(() -> uploadFolder(folder.getKey(), folder.getValue()));
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOGGER.debug("EDMS:: Waiting for bulk load workers");
+            }
+        } finally {
+            executor.shutdownNow();
+            reporter.shutdownNow();
+            synchronized (this) {
+                checkpointWriter.close();
+            }
+            reportProgress();
+        }
+    }
+
+    public int getUploadedCount() {
+        return uploadedCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    private void uploadFolder(Integer folderRSN, List<Integer> attachmentRSNs) {
+        Map<Integer, AttachmentContext> contexts;
+        try {
+            contexts = tokenManager.callWithAuthRetry(authToken -> new OTPutAttachmentService(connection, authToken).resolveAttachmentContexts(attachmentRSNs));
+        } catch (Exception exp) {
+            failedCount.addAndGet(attachmentRSNs.size());
+            LOGGER.error("EDMS:: Unable to resolve the AMANDA data of FolderRSN {}, {} attachments failed", folderRSN, attachmentRSNs.size(), exp);
+            return;
+        }
+        for (Integer attachmentRSN : attachmentRSNs) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            AttachmentContext attachmentContext = contexts.get(attachmentRSN);
+            if (attachmentContext == null) {
+                failedCount.incrementAndGet();
+                LOGGER.error("EDMS:: AttachmentRSN {} is not attached to FolderRSN {}", attachmentRSN, folderRSN);
+                continue;
+            }
+            try {
+                upload(attachmentContext);
+            } catch (Exception exp) {
+                failedCount.incrementAndGet();
+                LOGGER.error("EDMS:: Bulk upload of AttachmentRSN {} in FolderRSN {} failed", attachmentRSN, folderRSN, exp);
+            }
+        }
+    }
+
+    /**
+     * Content without a size or file path is spooled first like in {@link OpenTextClient#putAttachment}, with
+     * dedup.enabled also content without a hash. An attachment whose document already exists, uploaded before a
+     * crash or by an attempt that failed on an expired token, is checkpointed with the existing EDMS ID.
+     */
+    private void upload(AttachmentContext attachmentContext) throws Exception {
+        Integer attachmentRSN = attachmentContext.getAttachmentRSN();
+        OTFileContent fileContent = contentProvider.getContent(attachmentRSN);
+        OTContentSpool spool = null;
+        try {
+            boolean hashBeforeUpload = EdmsProperties.isDedupEnabled() && fileContent.getContentHash() == null;
+            if (fileContent.getFilePath() == null && (fileContent.getSize() == null || hashBeforeUpload)) {
+                spool = OTContentSpool.spool(fileContent.getContent());
+            }
+            OTContentSpool contentSpool = spool;
+            tokenManager.callWithAuthRetry(authToken -> {
+                OTPutAttachmentService putService = new OTPutAttachmentService(connection, authToken);
+                // Every attempt reads the spooled copy from the start
+                OTFileContent uploadContent = contentSpool != null ? contentSpool.open(fileContent) : fileContent;
+                try {
+                    Long existingId = putService.findUploadedDocument(attachmentContext, uploadContent);
+                    if (existingId != null) {
+                        LOGGER.info("EDMS:: AttachmentRSN {} was already uploaded as node {}", attachmentRSN, existingId);
+                        writeCheckpoint(attachmentRSN, String.valueOf(existingId));
+                        skippedCount.incrementAndGet();
+                        return null;
+                    }
+                    String edmsId = putService.putAttachment(attachmentContext, null, uploadContent);
+                    writeCheckpoint(attachmentRSN, edmsId);
+                    uploadedCount.incrementAndGet();
+                    uploadedBytes.addAndGet(uploadContent.getSize() != null ? uploadContent.getSize() : 0L);
+                    return null;
+                } finally {
+                    if (contentSpool != null && uploadContent.getContent() != null) {
+                        uploadContent.getContent().close();
+                    }
+                }
+            });
+        } finally {
+            if (spool != null) {
+                spool.close();
+            }
+            if (fileContent.getContent() != null) {
+                fileContent.getContent().close();
+            }
+        }
+    }
+
+    private Map<Integer, List<Integer>> loadWorkList(String workListSql, Set<Integer> completed) throws SQLException {
+        Map<Integer, List<Integer>> attachmentsByFolder = new LinkedHashMap<>();
+        PreparedStatement ps = null;
+        try {
+            ps = connection.prepareStatement(workListSql);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                Integer attachmentRSN = rs.getInt(1);
+                Integer folderRSN = rs.getInt(2);
+                totalCount++;
+                if (completed.contains(attachmentRSN)) {
+                    skippedCount.incrementAndGet();
+                    continue;
+                }
+                attachmentsByFolder.computeIfAbsent(folderRSN, key -> new ArrayList<>()).add(attachmentRSN);
+            }
+            rs.close();
+        } finally {
+            if (ps != null) {
+                try {
+                    ps.close();
+                } catch (Exception exp) {
+                    LOGGER.error("Error while closing prepared statement", exp);
+                }
+            }
+        }
+        return attachmentsByFolder;
+    }
+
+    private Set<Integer> readCheckpoint() throws IOException {
+        Set<Integer> completed = new HashSet<>();
+        if (!checkpointFile.exists()) {
+            return completed;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Integer attachmentRSN = parseCheckpointLine(line);
+                if (attachmentRSN != null) {
+                    completed.add(attachmentRSN);
+                } else if (!line.isEmpty()) {
+                    LOGGER.warn("EDMS:: Ignoring invalid checkpoint line: {}", line);
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * @return the attachment RSN of a line "AttachmentRSN,EDMS ID" with both fields numeric, otherwise null
+     */
+    private static Integer parseCheckpointLine(String line) {
+        int separator = line.indexOf(',');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            Integer attachmentRSN = Integer.valueOf(line.substring(0, separator).trim());
+            Long.parseLong(line.substring(separator + 1).trim());
+            return attachmentRSN;
+        } catch (NumberFormatException exp) {
+            return null;
+        }
+    }
+
+    /**
+     * Cuts a last line torn by a crash, otherwise the next checkpoint would be appended to it and "123" followed
+     * by "456,789" would read as a completed AttachmentRSN 123456
+     */
+    private void truncateTornLine() throws IOException {
+        if (!checkpointFile.exists()) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(checkpointFile, "rw")) {
+            long length = file.length();
+            long position = length;
+            while (position > 0) {
+                file.seek(position - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                position--;
+            }
+            if (position < length) {
+                LOGGER.warn("EDMS:: Removing the torn last line of the checkpoint file {}", checkpointFile);
+                file.setLength(position);
+                file.getFD().sync();
+            }
+        }
+    }
+
+    private synchronized void writeCheckpoint(Integer attachmentRSN, String edmsId) throws IOException {
+        checkpointWriter.write(attachmentRSN + "," + edmsId + "\n");
+        checkpointWriter.flush();
+        // A checkpointed attachment is never uploaded again, so the line must survive a crash
+        checkpointStream.getFD().sync();
+    }
+
+    private void reportProgress() {
+        double seconds = Math.max(1L, System.currentTimeMillis() - startTime) / 1000.0;
+        LOGGER.info("EDMS:: Bulk load progress: {}/{} uploaded, {} failed, {} skipped, {} docs/s, {} KB/s",
+                uploadedCount.get(), totalCount, failedCount.get(), skippedCount.get(),
+                String.format("%.1f", uploadedCount.get() / seconds), String.format("%.1f", uploadedBytes.get() / 1024.0 / seconds));
+    }
+
+    /**
+     * Opens the content of an AMANDA attachment for the bulk loader
+     */
+    public interface OTContentProvider {
+        OTFileContent getContent(Integer attachmentRSN) throws Exception;
+    }
+}
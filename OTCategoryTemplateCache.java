@@ -0,0 +1,132 @@
+package amanda.edms;
+
+import com.opentext.livelink.service.docman.AttributeGroup;
+import com.opentext.livelink.service.docman.DocumentManagement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of OpenText category templates. Templates are kept in their serialized form and every
+ * caller gets its own deep copy, so the returned AttributeGroup can be filled in without affecting other uploads.
+ */
+public class OTCategoryTemplateCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTCategoryTemplateCache.class);
+
+    private static final QName ATTRIBUTE_GROUP = new QName("urn:DocMan.service.livelink.opentext.com", "AttributeGroup");
+
+    private static final String CONTEXT_PATH = "com.opentext.livelink.service.docman:com.opentext.livelink.service.core";
+
+    private static final OTCategoryTemplateCache INSTANCE = new OTCategoryTemplateCache();
+
+    private final ConcurrentMap<Long, CachedTemplate> templates = new ConcurrentHashMap<>();
+
+    private final long ttlMillis;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private volatile JAXBContext jaxbContext;
+
+    private OTCategoryTemplateCache() {
+        this.ttlMillis = EdmsProperties.getCategoryTemplateTtlMillis();
+    }
+
+    public static OTCategoryTemplateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a private copy of the category template, it is only fetched from OpenText when it isn't cached
+     * or the cached copy is older than categoryTemplate.ttlMinutes
+     */
+    public AttributeGroup getTemplate(DocumentManagement docManClient, Long categoryId) {
+        CachedTemplate cached = templates.get(categoryId);
+        if (cached != null && System.currentTimeMillis() - cached.loadedAt < ttlMillis) {
+            try {
+                AttributeGroup template = deserialize(cached.xml);
+                hitCount.incrementAndGet();
+                return template;
+            } catch (JAXBException exp) {
+                LOGGER.warn("EDMS:: Unable to copy cached category template {}, fetching it again", categoryId, exp);
+            }
+        }
+        missCount.incrementAndGet();
+        LOGGER.debug("EDMS:: Fetching category template {}", categoryId);
+        AttributeGroup template = docManClient.getCategoryTemplate(categoryId);
+        if (ttlMillis > 0) {
+            try {
+                templates.put(categoryId, new CachedTemplate(serialize(template)));
+            } catch (JAXBException exp) {
+                LOGGER.warn("EDMS:: Unable to cache category template {}", categoryId, exp);
+            }
+        }
+        return template;
+    }
+
+    public void invalidate(Long categoryId) {
+        templates.remove(categoryId);
+    }
+
+    public void invalidateAll() {
+        templates.clear();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private byte[] serialize(AttributeGroup template) throws JAXBException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        getJaxbContext().createMarshaller().marshal(new JAXBElement<>(ATTRIBUTE_GROUP, AttributeGroup.class, template), outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private AttributeGroup deserialize(byte[] xml) throws JAXBException {
+        return getJaxbContext().createUnmarshaller().unmarshal(new StreamSource(new ByteArrayInputStream(xml)), AttributeGroup.class).getValue();
+    }
+
+    private JAXBContext getJaxbContext() throws JAXBException {
+        if (jaxbContext == null) {
+            synchronized (this) {
+                if (jaxbContext == null) {
+                    jaxbContext = JAXBContext.newInstance(CONTEXT_PATH);
+                }
+            }
+        }
+        return jaxbContext;
+    }
+
+    private static class CachedTemplate {
+
+        private final byte[] xml;
+
+        private final long loadedAt = System.currentTimeMillis();
+
+        private CachedTemplate(byte[] xml) {
+            this.xml = xml;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package amanda.edms;
+
+import java.io.IOException;
+
+/**
+ * The content that was transferred doesn't match the content that was sent or stored in OpenText
+ */
+public class OTChecksumMismatchException extends IOException {
+
+    private final String expected;
+
+    private final String actual;
+
+    private final String documentId;
+
+    public OTChecksumMismatchException(String message, String expected, String actual) {
+        this(message, expected, actual, null);
+    }
+
+    /**
+     * @param documentId the EDMS ID the content was stored as, it exists in OpenText despite the mismatch
+     */
+    public OTChecksumMismatchException(String message, String expected, String actual, String documentId) {
+        super(message + ", expected " + expected + " but was " + actual);
+        this.expected = expected;
+        this.actual = actual;
+        this.documentId = documentId;
+    }
+
+    /**
+     * @return the expected size or SHA-256
+     */
+    public String getExpected() {
+        return expected;
+    }
+
+    /**
+     * @return the size or SHA-256 of the content that was transferred
+     */
+    public String getActual() {
+        return actual;
+    }
+
+    /**
+     * @return the EDMS ID created or versioned by the upload that failed the check, null for a download. A retry
+     * must add a version to it instead of creating another document.
+     */
+    public String getDocumentId() {
+        return documentId;
+    }
+}
@@ -0,0 +1,287 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk LRU cache of downloaded document content, keyed by document ID and version number. A cached version
+ * never changes in OpenText, so an entry is fresh as long as the version is still the current version of the node.
+ * The cache is bounded by contentCache.maxMegabytes and contentCache.maxEntries. Cache files are opened read-only
+ * and shared by concurrent readers, an evicted file is deleted when its last reader closes it.
+ * The cache keeps its files in the edms-content-cache subdirectory of contentCache.dir, which is cleared on start.
+ * Other files in contentCache.dir are left alone, so it may be a shared directory such as the temp directory.
+ */
+public class OTContentCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTContentCache.class);
+
+    private static final OTContentCache INSTANCE = new OTContentCache();
+
+    private final boolean enabled;
+
+    private final File cacheDir;
+
+    private final long maxBytes;
+
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long totalBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final AtomicLong hitBytes = new AtomicLong();
+
+    private OTContentCache() {
+        this.cacheDir = new File(EdmsProperties.getContentCacheDir(), "edms-content-cache");
+        this.maxBytes = EdmsProperties.getContentCacheMaxBytes();
+        this.maxEntries = EdmsProperties.getContentCacheMaxEntries();
+        this.enabled = EdmsProperties.isContentCacheEnabled() && prepareCacheDir();
+    }
+
+    public static OTContentCache getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Opens the cached content of the document version
+     *
+     * @return the content or null when the version isn't cached
+     */
+    public OTFileContent get(Long documentId, long version) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key(documentId, version));
+            if (entry != null) {
+                entry.readers++;
+            }
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        try {
+            OTFileContent fileContent = entry.open();
+            hitCount.incrementAndGet();
+            hitBytes.addAndGet(entry.size);
+            LOGGER.debug("EDMS:: Serving document {} version {} from the content cache", documentId, version);
+            return fileContent;
+        } catch (IOException | RuntimeException exp) {
+            release(entry);
+            throw exp;
+        }
+    }
+
+    /**
+     * Moves a downloaded file into the cache and opens it. When the cache is disabled the file is opened as a
+     * temp file deleted on close.
+     */
+    public OTFileContent put(Long documentId, long version, File downloadedFile, String fileName, String mimeType) throws IOException {
+        if (!enabled) {
+            OTFileContent fileContent = new OTFileContent();
+            fileContent.setFileName(fileName);
+            fileContent.setMimeType(mimeType);
+            fileContent.setSize(downloadedFile.length());
+            fileContent.setFilePath(downloadedFile.getPath());
+            fileContent.setContent(new DeleteOnCloseFileInputStream(downloadedFile));
+            return fileContent;
+        }
+        String key = key(documentId, version);
+        // Unique per entry, an evicted file may still be open when the same version is cached again
+        File cacheFile = File.createTempFile(key + "_", ".bin", cacheDir);
+        // Moved before taking the lock, a move across file systems copies the file
+        Files.move(downloadedFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        CacheEntry entry;
+        boolean cached = false;
+        List<CacheEntry> evicted = new ArrayList<>();
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new CacheEntry(cacheFile, cacheFile.length(), fileName, mimeType);
+                entries.put(key, entry);
+                totalBytes += entry.size;
+                evictEntries(entry, evicted);
+                cached = true;
+            }
+            entry.readers++;
+        }
+        if (!cached) {
+            // Downloaded concurrently by another reader which cached it first
+            Files.deleteIfExists(cacheFile.toPath());
+        }
+        for (CacheEntry evictedEntry : evicted) {
+            evictedEntry.deleteIfUnused();
+        }
+        try {
+            return entry.open();
+        } catch (IOException | RuntimeException exp) {
+            release(entry);
+            throw exp;
+        }
+    }
+
+    /**
+     * @return the directory to download content to, the cache directory so it is moved into the cache without a
+     * copy, null for the default temp directory when the cache is disabled
+     */
+    public File getDownloadDir() {
+        return enabled ? cacheDir : null;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the number of bytes served from the cache instead of being downloaded
+     */
+    public long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    public long getTotalBytes() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is within its limits, the added entry is kept
+     */
+    private void evictEntries(CacheEntry added, List<CacheEntry> evicted) {
+        Iterator<CacheEntry> eldest = entries.values().iterator();
+        while ((totalBytes > maxBytes || entries.size() > maxEntries) && eldest.hasNext()) {
+            CacheEntry entry = eldest.next();
+            if (entry == added) {
+                continue;
+            }
+            eldest.remove();
+            totalBytes -= entry.size;
+            entry.evicted = true;
+            evicted.add(entry);
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private void release(CacheEntry entry) {
+        synchronized (entries) {
+            entry.readers--;
+        }
+        entry.deleteIfUnused();
+    }
+
+    private boolean prepareCacheDir() {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            LOGGER.error("EDMS:: Unable to create the content cache directory {}, the content cache is disabled", cacheDir);
+            return false;
+        }
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    LOGGER.warn("EDMS:: Unable to delete the stale content cache file {}", file);
+                }
+            }
+        }
+        LOGGER.info("EDMS:: Content cache in {}, max {} bytes, max {} entries", cacheDir, maxBytes, maxEntries);
+        return true;
+    }
+
+    private static String key(Long documentId, long version) {
+        return documentId + "_" + version;
+    }
+
+    private final class CacheEntry {
+
+        private final File file;
+
+        private final long size;
+
+        private final String fileName;
+
+        private final String mimeType;
+
+        // Guarded by the entries lock
+        private int readers;
+
+        private boolean evicted;
+
+        private CacheEntry(File file, long size, String fileName, String mimeType) {
+            this.file = file;
+            this.size = size;
+            this.fileName = fileName;
+            this.mimeType = mimeType;
+        }
+
+        private OTFileContent open() throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            OTFileContent fileContent = new OTFileContent();
+            fileContent.setFileName(fileName);
+            fileContent.setMimeType(mimeType);
+            fileContent.setSize(size);
+            fileContent.setFilePath(file.getPath());
+            fileContent.setContent(new FilterInputStream(Channels.newInputStream(channel)) {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        release(CacheEntry.this);
+                    }
+                }
+            });
+            return fileContent;
+        }
+
+        private void deleteIfUnused() {
+            synchronized (entries) {
+                if (!evicted || readers > 0) {
+                    return;
+                }
+            }
+            if (!file.delete() && file.exists()) {
+                LOGGER.warn("EDMS:: Unable to delete the evicted content cache file {}", file);
+            }
+        }
+    }
+}
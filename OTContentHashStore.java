@@ -0,0 +1,198 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SHA-256 of the content last uploaded for each EDMS ID, used to skip the upload of a version whose content didn't
+ * change. The hash is only valid for the version it was stored with, a version added while dedup was off or from
+ * outside the adaptor makes it stale. The hashes are kept in a table of the AMANDA database:
+ * <pre>
+ * CREATE TABLE EDMS_CONTENT_HASH (
+ *     EdmsId      VARCHAR(64) NOT NULL PRIMARY KEY,
+ *     ContentHash CHAR(64)    NOT NULL,
+ *     ContentSize BIGINT      NOT NULL,
+ *     VersionNum  BIGINT      NOT NULL,
+ *     UpdatedAt   DATETIME    NOT NULL
+ * )
+ * </pre>
+ */
+public class OTContentHashStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTContentHashStore.class);
+
+    private static final AtomicLong SKIPPED_UPLOAD_COUNT = new AtomicLong();
+
+    private static final AtomicLong BYTES_AVOIDED = new AtomicLong();
+
+    private static final AtomicLong CHECKSUM_MISMATCH_COUNT = new AtomicLong();
+
+    private final Connection connection;
+
+    private final String tableName;
+
+    public OTContentHashStore(Connection connection) {
+        this.connection = connection;
+        this.tableName = EdmsProperties.getContentHashTable();
+    }
+
+    /**
+     * @return the hash of the content last uploaded for the EDMS ID or null when it isn't known
+     */
+    public StoredHash getHash(String edmsId) throws SQLException {
+        PreparedStatement ps = null;
+        try {
+            ps = connection.prepareStatement("SELECT ContentHash, VersionNum FROM " + tableName + " WHERE EdmsId = ?");
+            ps.setString(1, edmsId);
+            ResultSet rs = ps.executeQuery();
+            StoredHash storedHash = rs.next() ? new StoredHash(rs.getString(1), rs.getLong(2)) : null;
+            rs.close();
+            return storedHash;
+        } finally {
+            closeQuietly(ps);
+        }
+    }
+
+    /**
+     * @param versionNum the version of the EDMS ID that holds the content
+     */
+    public void putHash(String edmsId, String contentHash, long contentSize, long versionNum) throws SQLException {
+        PreparedStatement ps = null;
+        try {
+            ps = connection.prepareStatement("UPDATE " + tableName + " SET ContentHash = ?, ContentSize = ?, VersionNum = ?, UpdatedAt = ? WHERE EdmsId = ?");
+            ps.setString(1, contentHash);
+            ps.setLong(2, contentSize);
+            ps.setLong(3, versionNum);
+            ps.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            ps.setString(5, edmsId);
+            if (ps.executeUpdate() > 0) {
+                return;
+            }
+        } finally {
+            closeQuietly(ps);
+        }
+        try {
+            ps = connection.prepareStatement("INSERT INTO " + tableName + " (EdmsId, ContentHash, ContentSize, VersionNum, UpdatedAt) VALUES (?, ?, ?, ?, ?)");
+            ps.setString(1, edmsId);
+            ps.setString(2, contentHash);
+            ps.setLong(3, contentSize);
+            ps.setLong(4, versionNum);
+            ps.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
+            ps.executeUpdate();
+        } finally {
+            closeQuietly(ps);
+        }
+    }
+
+    /**
+     * Counts an upload skipped because its content was already stored
+     */
+    public static void recordSkippedUpload(long contentSize) {
+        SKIPPED_UPLOAD_COUNT.incrementAndGet();
+        BYTES_AVOIDED.addAndGet(contentSize);
+    }
+
+    public static long getSkippedUploadCount() {
+        return SKIPPED_UPLOAD_COUNT.get();
+    }
+
+    public static long getBytesAvoided() {
+        return BYTES_AVOIDED.get();
+    }
+
+    /**
+     * Counts a transfer whose size or SHA-256 didn't match, see {@link OTChecksumMismatchException}
+     */
+    public static OTChecksumMismatchException checksumMismatch(String message, Object expected, Object actual) {
+        return checksumMismatch(message, expected, actual, null);
+    }
+
+    /**
+     * @param documentId the EDMS ID the mismatching content was uploaded as
+     */
+    public static OTChecksumMismatchException checksumMismatch(String message, Object expected, Object actual, String documentId) {
+        CHECKSUM_MISMATCH_COUNT.incrementAndGet();
+        LOGGER.error("EDMS:: {}, expected {} but was {}", message, expected, actual);
+        return new OTChecksumMismatchException(message, String.valueOf(expected), String.valueOf(actual), documentId);
+    }
+
+    public static long getChecksumMismatchCount() {
+        return CHECKSUM_MISMATCH_COUNT.get();
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exp) {
+            throw new RuntimeException("SHA-256 is not supported by this JVM", exp);
+        }
+    }
+
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte value : hash) {
+            hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        if (ps != null) {
+            try {
+                ps.close();
+            } catch (Exception exp) {
+                LOGGER.error("Error while closing prepared statement", exp);
+            }
+        }
+    }
+
+    /**
+     * Hash of the content of an EDMS ID and the version it was uploaded as
+     */
+    public static class StoredHash {
+
+        private final String contentHash;
+
+        private final long versionNum;
+
+        public StoredHash(String contentHash, long versionNum) {
+            this.contentHash = contentHash;
+            this.versionNum = versionNum;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public long getVersionNum() {
+            return versionNum;
+        }
+    }
+}
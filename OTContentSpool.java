@@ -0,0 +1,122 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Local copy of content of unknown length. The content is kept in memory up to upload.spoolMemoryKilobytes and
+ * spilled to a temp file beyond that, so the size is known before the upload starts without holding large files
+ * on the heap. The copy can be opened any number of times, it is reused when the upload is retried. The SHA-256 of
+ * the content is computed while spooling.
+ */
+public class OTContentSpool implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTContentSpool.class);
+
+    private final byte[] memoryContent;
+
+    private final File spillFile;
+
+    private final long size;
+
+    private final String contentHash;
+
+    private OTContentSpool(byte[] memoryContent, File spillFile, long size, String contentHash) {
+        this.memoryContent = memoryContent;
+        this.spillFile = spillFile;
+        this.size = size;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Copies the stream to a spool and closes it
+     */
+    public static OTContentSpool spool(InputStream content) throws IOException {
+        return spool(content, EdmsProperties.getUploadSpoolMemoryBytes());
+    }
+
+    public static OTContentSpool spool(InputStream content, long memoryThreshold) throws IOException {
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        File spillFile = null;
+        OutputStream out = memory;
+        long size = 0;
+        MessageDigest digest = OTContentHashStore.newDigest();
+        try (InputStream in = content) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (spillFile == null && size + read > memoryThreshold) {
+                    spillFile = File.createTempFile("open-text-spool-", ".tmp");
+                    out = new FileOutputStream(spillFile);
+                    memory.writeTo(out);
+                    memory = null;
+                }
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+            out.close();
+        } catch (IOException | RuntimeException exp) {
+            if (spillFile != null) {
+                out.close();
+                if (!spillFile.delete()) {
+                    LOGGER.warn("EDMS:: Unable to delete the upload spool file {}", spillFile);
+                }
+            }
+            throw exp;
+        }
+        LOGGER.debug("EDMS:: Spooled {} bytes {}", size, spillFile == null ? "in memory" : "to " + spillFile);
+        return new OTContentSpool(memory != null ? memory.toByteArray() : null, spillFile, size, OTContentHashStore.toHex(digest.digest()));
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the hex SHA-256 of the spooled content
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Opens the spooled copy as the content of an upload, the other attributes are taken from the original content
+     */
+    public OTFileContent open(OTFileContent original) throws IOException {
+        OTFileContent fileContent = new OTFileContent();
+        fileContent.setFileName(original.getFileName());
+        fileContent.setMimeType(original.getMimeType());
+        fileContent.setFileExtension(original.getFileExtension());
+        fileContent.setSize(size);
+        fileContent.setContentHash(contentHash);
+        if (spillFile != null) {
+            fileContent.setFilePath(spillFile.getPath());
+            fileContent.setContent(new FileInputStream(spillFile));
+        } else {
+            fileContent.setContent(new ByteArrayInputStream(memoryContent));
+        }
+        return fileContent;
+    }
+
+    /**
+     * Deletes the spill file
+     */
+    @Override
+    public void close() {
+        if (spillFile != null && !spillFile.delete() && spillFile.exists()) {
+            LOGGER.warn("EDMS:: Unable to delete the upload spool file {}", spillFile);
+        }
+    }
+}
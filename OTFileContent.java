@@ -13,6 +13,7 @@ public class OTFileContent {
     private String filePath;
     private InputStream content;
     private Long size;
+    private String contentHash;
 
     public String getFileName() {
         return fileName;
@@ -61,4 +62,15 @@ public class OTFileContent {
     public void setSize(Long size) {
         this.size = size;
     }
+
+    /**
+     * Hex SHA-256 of the content when it is already known, for example from spooling
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
 }
@@ -0,0 +1,202 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of resolved OpenText folder node IDs, keyed by parent node ID and folder name. The workspace
+ * root folders configured through edms.properties are cached the same way, keyed by root ID and path.
+ * Folder resolution is single-flight, see {@link #resolve(FolderKey, FolderLoader)}.
+ */
+public class OTFolderCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTFolderCache.class);
+
+    private static final OTFolderCache INSTANCE = new OTFolderCache(EdmsProperties.getFolderCacheMaxEntries());
+
+    private final Map<FolderKey, Long> folders;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private final ConcurrentMap<FolderKey, CompletableFuture<Long>> resolutions = new ConcurrentHashMap<>();
+
+    private OTFolderCache(final int maxEntries) {
+        this.folders = new LinkedHashMap<FolderKey, Long>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FolderKey, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static OTFolderCache getInstance() {
+        return INSTANCE;
+    }
+
+    public Long get(FolderKey key) {
+        Long nodeId;
+        synchronized (folders) {
+            nodeId = folders.get(key);
+        }
+        if (nodeId != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return nodeId;
+    }
+
+    /**
+     * Resolves a folder that isn't cached. Concurrent callers for the same key are coalesced: only one thread runs
+     * the loader, the others wait for and share its result.
+     */
+    public Long resolve(FolderKey key, FolderLoader loader) throws SQLException {
+        CompletableFuture<Long> resolution = new CompletableFuture<>();
+        CompletableFuture<Long> inFlight = resolutions.putIfAbsent(key, resolution);
+        if (inFlight != null) {
+            coalescedCount.incrementAndGet();
+            LOGGER.debug("EDMS:: Waiting for the resolution of folder {} by another thread", key);
+            return await(key, inFlight);
+        }
+        try {
+            Long nodeId;
+            synchronized (folders) {
+                nodeId = folders.get(key);
+            }
+            if (nodeId == null) {
+                nodeId = loader.load();
+                put(key, nodeId);
+            }
+            resolution.complete(nodeId);
+            return nodeId;
+        } catch (SQLException | RuntimeException exp) {
+            resolution.completeExceptionally(exp);
+            throw exp;
+        } finally {
+            resolutions.remove(key, resolution);
+        }
+    }
+
+    public void put(FolderKey key, Long nodeId) {
+        synchronized (folders) {
+            folders.put(key, nodeId);
+        }
+    }
+
+    public void invalidate(FolderKey key) {
+        LOGGER.debug("EDMS:: Dropping cached folder {}", key);
+        invalidationCount.incrementAndGet();
+        synchronized (folders) {
+            folders.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (folders) {
+            folders.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private static Long await(FolderKey key, CompletableFuture<Long> inFlight) throws SQLException {
+        try {
+            return inFlight.get();
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the resolution of folder " + key, exp);
+        } catch (ExecutionException exp) {
+            Throwable cause = exp.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Unable to resolve folder " + key, cause);
+        }
+    }
+
+    /**
+     * Looks up or creates a folder in OpenText
+     */
+    public interface FolderLoader {
+        Long load() throws SQLException;
+    }
+
+    /**
+     * Folder identity, either a name under a parent node or a path under a root node
+     */
+    public static final class FolderKey {
+
+        private final long parentId;
+
+        private final String name;
+
+        private FolderKey(long parentId, String name) {
+            this.parentId = parentId;
+            this.name = name;
+        }
+
+        public static FolderKey byName(long parentId, String name) {
+            return new FolderKey(parentId, name);
+        }
+
+        public static FolderKey byPath(long rootId, List<String> path) {
+            // '|' is the path separator used in edms.properties, it can't appear in a name of the path
+            return new FolderKey(rootId, "|" + String.join("|", path));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof FolderKey)) {
+                return false;
+            }
+            FolderKey key = (FolderKey) other;
+            return parentId == key.parentId && name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(parentId) + name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return parentId + "/" + name;
+        }
+    }
+}
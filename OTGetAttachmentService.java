@@ -1,15 +1,20 @@
 package amanda.edms;
 
+import amanda.edms.OTPortPool.PooledPort;
 import com.opentext.livelink.service.core.ContentService;
 import com.opentext.livelink.service.docman.DocumentManagement;
 import com.opentext.livelink.service.docman.Node;
+import com.opentext.livelink.service.docman.NodeVersionInfo;
+import com.opentext.livelink.service.docman.Version;
 import com.sun.xml.internal.org.jvnet.staxex.StreamingDataHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.soap.SOAPException;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Service class to retrieve attachments from OpenText server
@@ -18,36 +23,197 @@ public class OTGetAttachmentService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OTGetAttachmentService.class);
 
+    private static final OTContentCache CONTENT_CACHE = OTContentCache.getInstance();
+
     private OTGetAttachmentService() {
         throw new Error("Contains only static methods");
     }
 
+    /**
+     * Downloads the document, streamed or spooled according to download.streaming
+     */
     public static OTFileContent getContent(String authToken, Long documentId) throws SOAPException, IOException {
-        // Create the DocumentManagement service client
-        DocumentManagement docManClient = OpenTextServices.getDocService(authToken);
+        return getContent(authToken, documentId, !EdmsProperties.isDownloadStreaming());
+    }
 
-        Node docNode = docManClient.getNode(documentId);
-        String fileName = docNode.getName();
-        String displayType = docNode.getDisplayType();
-        LOGGER.debug("OT FileName: {}", fileName);
-        LOGGER.debug("DisplayType: {}", displayType);
+    /**
+     * Downloads the document. A re-readable download is spooled to a local file first, its path is set as the
+     * file path of the content until the content is closed. Otherwise the MTOM stream of the response is passed
+     * through: the content can be read only once, and the ContentService port is held until it is closed.
+     * Documents in the content cache are always served from the cache. With checksum.verify the size of the download
+     * is compared with the size stored by OpenText, see {@link OTChecksumMismatchException}.
+     */
+    public static OTFileContent getContent(String authToken, Long documentId, boolean reReadable) throws SOAPException, IOException {
+        String fileName;
+        String mimeType;
+        Long size = null;
+        long version;
+        String contentId;
+        boolean verify = EdmsProperties.isChecksumVerify();
+        // Borrow a DocumentManagement service client
+        try (PooledPort<DocumentManagement> docPort = OpenTextServices.borrowDocService(authToken)) {
+            DocumentManagement docManClient = docPort.get();
 
-        String contentId = docManClient.getVersionContentsContext(documentId, 0);
-        LOGGER.debug("OT Content ID: {}", contentId);
+            Node docNode = docManClient.getNode(documentId);
+            fileName = docNode.getName();
+            String displayType = docNode.getDisplayType();
+            LOGGER.debug("OT FileName: {}", fileName);
+            LOGGER.debug("DisplayType: {}", displayType);
 
-        // Create the ContentService client
-        // NOTE: ContentService is the only service that requires MTOM support
-        ContentService contentServiceClient = OpenTextServices.getContentService(authToken, contentId, null);
+            // The current version is the freshness check of the content cache
+            NodeVersionInfo versionInfo = docNode.getVersionInfo();
+            version = versionInfo != null ? versionInfo.getVersionNum() : 0L;
+            mimeType = versionInfo != null ? versionInfo.getMimeType() : null;
+            if (version > 0) {
+                OTFileContent cachedContent = CONTENT_CACHE.get(documentId, version);
+                if (cachedContent != null) {
+                    return cachedContent;
+                }
+            }
+
+            if (!reReadable || verify) {
+                // Known up front so AMANDA can start the response before the first byte arrives
+                Version versionData = docManClient.getVersion(documentId, version);
+                if (versionData != null) {
+                    size = versionData.getFileDataSize();
+                    mimeType = versionData.getMimeType() != null ? versionData.getMimeType() : mimeType;
+                }
+            }
+
+            contentId = docManClient.getVersionContentsContext(documentId, version);
+            LOGGER.debug("OT Content ID: {}", contentId);
+        }
+
+        if (!reReadable) {
+            return openStream(authToken, documentId, contentId, fileName, mimeType, size, verify);
+        }
 
-        StreamingDataHandler downloadStream = (StreamingDataHandler) contentServiceClient.downloadContent(contentId);
-        String tempFileName = "open-text-" + System.currentTimeMillis();
-        File tempFile = File.createTempFile(tempFileName, "download");
-        downloadStream.moveTo(tempFile);
-        downloadStream.close();
+        // Borrow a ContentService client
+        // NOTE: ContentService is the only service that requires MTOM support
+        File tempFile;
+        try (PooledPort<ContentService> contentPort = OpenTextServices.borrowContentService(authToken, contentId, null)) {
+            // Closed when an asynchronous download is cancelled, which fails the transfer below
+            StreamingDataHandler downloadStream = OTAbortHandle.register((StreamingDataHandler) contentPort.get().downloadContent(contentId));
+            String tempFileName = "open-text-" + System.currentTimeMillis();
+            tempFile = File.createTempFile(tempFileName, "download", CONTENT_CACHE.getDownloadDir());
+            downloadStream.moveTo(tempFile);
+            downloadStream.close();
+        }
+        if (verify && size != null && tempFile.length() != size) {
+            long downloadedSize = tempFile.length();
+            if (!tempFile.delete()) {
+                LOGGER.warn("EDMS:: Unable to delete the temp file {}", tempFile);
+            }
+            throw OTContentHashStore.checksumMismatch("Size of the content downloaded for EDMS ID " + documentId + " doesn't match the stored size",
+                    size, downloadedSize);
+        }
 
+        if (version > 0) {
+            return CONTENT_CACHE.put(documentId, version, tempFile, fileName, mimeType);
+        }
         OTFileContent fileContent = new OTFileContent();
         fileContent.setFileName(fileName);
+        fileContent.setMimeType(mimeType);
+        fileContent.setSize(tempFile.length());
+        fileContent.setFilePath(tempFile.getPath());
         fileContent.setContent(new DeleteOnCloseFileInputStream(tempFile));
         return fileContent;
     }
+
+    private static OTFileContent openStream(String authToken, Long documentId, String contentId, String fileName, String mimeType, Long size, boolean verify) throws SOAPException, IOException {
+        PooledPort<ContentService> contentPort = OpenTextServices.borrowContentService(authToken, contentId, null);
+        try {
+            StreamingDataHandler downloadStream = (StreamingDataHandler) contentPort.get().downloadContent(contentId);
+            OTFileContent fileContent = new OTFileContent();
+            fileContent.setFileName(fileName);
+            fileContent.setMimeType(mimeType);
+            fileContent.setSize(size);
+            fileContent.setContent(verify ? new VerifyingInputStream(new DownloadInputStream(downloadStream, contentPort), documentId, fileContent)
+                    : new DownloadInputStream(downloadStream, contentPort));
+            return fileContent;
+        } catch (IOException | RuntimeException exp) {
+            contentPort.close();
+            throw exp;
+        }
+    }
+
+    /**
+     * Reads the MTOM attachment of a download once, without buffering it to disk. Closing the stream closes the
+     * response and returns the ContentService port to the pool.
+     */
+    private static class DownloadInputStream extends FilterInputStream {
+
+        private final StreamingDataHandler downloadStream;
+
+        private PooledPort<ContentService> contentPort;
+
+        DownloadInputStream(StreamingDataHandler downloadStream, PooledPort<ContentService> contentPort) throws IOException {
+            super(downloadStream.readOnce());
+            this.downloadStream = downloadStream;
+            this.contentPort = contentPort;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (contentPort == null) {
+                return;
+            }
+            try {
+                super.close();
+                downloadStream.close();
+            } finally {
+                contentPort.close();
+                contentPort = null;
+            }
+        }
+    }
+
+    /**
+     * Verifies a streamed download when it is read to the end: the number of bytes must match the size stored by
+     * OpenText. The SHA-256 computed on the way is set as the content hash of the download.
+     */
+    private static class VerifyingInputStream extends DigestingInputStream {
+
+        private final Long documentId;
+
+        private final OTFileContent fileContent;
+
+        private boolean verified;
+
+        VerifyingInputStream(InputStream in, Long documentId, OTFileContent fileContent) {
+            super(in);
+            this.documentId = documentId;
+            this.fileContent = fileContent;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value == -1) {
+                verify();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read == -1) {
+                verify();
+            }
+            return read;
+        }
+
+        private void verify() throws OTChecksumMismatchException {
+            if (verified) {
+                return;
+            }
+            verified = true;
+            if (fileContent.getSize() != null && fileContent.getSize() != getByteCount()) {
+                throw OTContentHashStore.checksumMismatch("Size of the content downloaded for EDMS ID " + documentId + " doesn't match the stored size",
+                        fileContent.getSize(), getByteCount());
+            }
+            fileContent.setContentHash(getHash());
+        }
+    }
 }
@@ -0,0 +1,123 @@
+package amanda.edms;
+
+import com.opentext.livelink.service.core.FileAtts;
+import com.sun.xml.internal.ws.api.SOAPVersion;
+import com.sun.xml.internal.ws.api.message.Header;
+import com.sun.xml.internal.ws.api.message.Headers;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds the SOAP headers of the OpenText services without SAAJ. The OTAuthentication header is built once per
+ * token and shared by all ports of the token, the contextID header is a plain text header and the fileAtts header
+ * is filled in from a template and buffered by a StAX reader instead of a DOM.
+ */
+public final class OTHeaderFactory {
+
+    // Namespaces for the SOAP headers
+    private static final String CORE_NAMESPACE = "urn:Core.service.livelink.opentext.com";
+
+    // The namespace of the OTAuthentication object
+    private static final String ECM_API_NAMESPACE = "urn:api.ecm.opentext.com";
+
+    private static final QName CONTEXT_ID = new QName(CORE_NAMESPACE, "contextID");
+
+    private static final String AUTH_TEMPLATE = "<OTAuthentication xmlns=\"" + ECM_API_NAMESPACE + "\">"
+            + "<AuthenticationToken>%s</AuthenticationToken>"
+            + "</OTAuthentication>";
+
+    private static final String FILE_ATTS_TEMPLATE = "<fileAtts xmlns=\"" + CORE_NAMESPACE + "\">"
+            + "<CreatedDate>%s</CreatedDate>"
+            + "<ModifiedDate>%s</ModifiedDate>"
+            + "<FileSize>%s</FileSize>"
+            + "<FileName>%s</FileName>"
+            + "</fileAtts>";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final ConcurrentMap<String, Header> AUTH_HEADERS = new ConcurrentHashMap<>();
+
+    private OTHeaderFactory() {
+        throw new Error("Contains only static methods");
+    }
+
+    /**
+     * @return the OTAuthentication header of the token, built on first use
+     */
+    public static Header getAuthHeader(String authToken) {
+        return AUTH_HEADERS.computeIfAbsent(authToken,
+                token -> createHeader(String.format(AUTH_TEMPLATE, escape(token))));
+    }
+
+    /**
+     * Drops the OTAuthentication header of a token that is no longer used
+     */
+    public static void evictAuthHeader(String authToken) {
+        AUTH_HEADERS.remove(authToken);
+    }
+
+    public static Header createContextIdHeader(String contentId) {
+        return Headers.create(CONTEXT_ID, contentId);
+    }
+
+    public static Header createFileAttsHeader(FileAtts fileAtts) {
+        return createHeader(String.format(FILE_ATTS_TEMPLATE,
+                escape(fileAtts.getCreatedDate().toString()),
+                escape(fileAtts.getModifiedDate().toString()),
+                escape(fileAtts.getFileSize().toString()),
+                escape(fileAtts.getFileName())));
+    }
+
+    private static Header createHeader(String xml) {
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+            try {
+                // The header is buffered from the root element on
+                reader.nextTag();
+                return Headers.create(SOAPVersion.SOAP_11, reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException exp) {
+            throw new RuntimeException("Unable to create the SOAP header " + xml, exp);
+        }
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int index = 0; index < value.length(); index++) {
+            String replacement;
+            switch (value.charAt(index)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    replacement = null;
+            }
+            if (replacement != null) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 16).append(value, 0, index);
+                }
+                escaped.append(replacement);
+            } else if (escaped != null) {
+                escaped.append(value.charAt(index));
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+}
@@ -0,0 +1,235 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.soap.SOAPException;
+import java.net.MalformedURLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JAX-WS port proxies keyed by auth token. Ports are created with their authentication header
+ * already set, so borrowing a port doesn't involve any proxy or header setup. JAX-WS ports are not thread safe,
+ * a borrowed port must only be used by one thread until it is closed.
+ */
+public class OTPortPool<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTPortPool.class);
+
+    private static final ScheduledExecutorService EVICTION_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "edms-port-pool-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+
+    private final PortFactory<T> factory;
+
+    private final EvictionListener evictionListener;
+
+    private final int maxPerToken;
+
+    private final long idleTimeoutMillis;
+
+    private final long borrowTimeoutMillis;
+
+    private final ConcurrentMap<String, TokenPool<T>> pools = new ConcurrentHashMap<>();
+
+    private final AtomicLong borrowCount = new AtomicLong();
+
+    private final AtomicLong createCount = new AtomicLong();
+
+    private final AtomicLong evictCount = new AtomicLong();
+
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+    OTPortPool(String name, PortFactory<T> factory, EvictionListener evictionListener) {
+        this.name = name;
+        this.factory = factory;
+        this.evictionListener = evictionListener;
+        this.maxPerToken = EdmsProperties.getPortPoolMaxPerToken();
+        this.idleTimeoutMillis = EdmsProperties.getPortPoolIdleTimeoutMillis();
+        this.borrowTimeoutMillis = EdmsProperties.getPortPoolBorrowTimeoutMillis();
+        long sweepMillis = Math.max(1000L, idleTimeoutMillis / 2);
+        EVICTION_EXECUTOR.scheduleWithFixedDelay(this::evictIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a port for the given token, waits when all ports of the token are in use
+     */
+    public PooledPort<T> borrow(String authToken) throws SOAPException, MalformedURLException {
+        TokenPool<T> pool = pools.computeIfAbsent(authToken, key -> new TokenPool<>(maxPerToken));
+        long startTime = System.nanoTime();
+        try {
+            if (!pool.permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("Timed out waiting for a free " + name + " port after " + borrowTimeoutMillis + " ms");
+            }
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a free " + name + " port", exp);
+        }
+        long waitNanos = System.nanoTime() - startTime;
+        borrowCount.incrementAndGet();
+        borrowWaitNanos.addAndGet(waitNanos);
+        maxBorrowWaitNanos.accumulateAndGet(waitNanos, Math::max);
+
+        IdlePort<T> idlePort = pool.idle.pollFirst();
+        if (idlePort != null) {
+            return new PooledPort<>(this, pool, idlePort.port);
+        }
+        try {
+            T port = factory.create(authToken);
+            createCount.incrementAndGet();
+            return new PooledPort<>(this, pool, port);
+        } catch (SOAPException | MalformedURLException | RuntimeException exp) {
+            pool.permits.release();
+            throw exp;
+        }
+    }
+
+    /**
+     * Drops all idle ports of a token, for example after OpenText rejected the token
+     */
+    public void evict(String authToken) {
+        TokenPool<T> pool = pools.remove(authToken);
+        if (pool != null) {
+            pool.retired = true;
+            pool.idle.clear();
+            evictCount.incrementAndGet();
+            evictionListener.evicted(authToken);
+        }
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getCreateCount() {
+        return createCount.get();
+    }
+
+    public long getEvictCount() {
+        return evictCount.get();
+    }
+
+    public double getAverageBorrowWaitMillis() {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : borrowWaitNanos.get() / (count * 1000000.0);
+    }
+
+    public double getMaxBorrowWaitMillis() {
+        return maxBorrowWaitNanos.get() / 1000000.0;
+    }
+
+    private void release(TokenPool<T> pool, T port) {
+        if (!pool.retired) {
+            pool.idle.offerFirst(new IdlePort<>(port));
+        }
+        pool.lastUsed = System.currentTimeMillis();
+        pool.permits.release();
+    }
+
+    private void evictIdle() {
+        try {
+            long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+            for (ConcurrentMap.Entry<String, TokenPool<T>> entry : pools.entrySet()) {
+                TokenPool<T> pool = entry.getValue();
+                // Most recently used ports are at the head, stale ones collect at the tail
+                Iterator<IdlePort<T>> iterator = pool.idle.descendingIterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().idleSince < cutoff) {
+                        iterator.remove();
+                    }
+                }
+                if (pool.idle.isEmpty() && pool.lastUsed < cutoff && pool.permits.availablePermits() == maxPerToken) {
+                    evict(entry.getKey());
+                }
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("EDMS:: {} port pool: tokens: {}, borrowed: {}, created: {}, evicted: {}, avg wait: {} ms, max wait: {} ms",
+                        name, pools.size(), borrowCount.get(), createCount.get(), evictCount.get(),
+                        getAverageBorrowWaitMillis(), getMaxBorrowWaitMillis());
+            }
+        } catch (RuntimeException exp) {
+            LOGGER.error("Error while evicting idle {} ports", name, exp);
+        }
+    }
+
+    /**
+     * A borrowed port, closing it returns the port to the pool
+     */
+    public static class PooledPort<T> implements AutoCloseable {
+
+        private final OTPortPool<T> owner;
+
+        private final TokenPool<T> pool;
+
+        private T port;
+
+        private PooledPort(OTPortPool<T> owner, TokenPool<T> pool, T port) {
+            this.owner = owner;
+            this.pool = pool;
+            this.port = port;
+        }
+
+        public T get() {
+            if (port == null) {
+                throw new IllegalStateException("Port already returned to the pool");
+            }
+            return port;
+        }
+
+        @Override
+        public void close() {
+            if (port != null) {
+                owner.release(pool, port);
+                port = null;
+            }
+        }
+    }
+
+    interface PortFactory<T> {
+        T create(String authToken) throws SOAPException, MalformedURLException;
+    }
+
+    interface EvictionListener {
+        void evicted(String authToken);
+    }
+
+    private static class TokenPool<T> {
+
+        private final Semaphore permits;
+
+        private final ConcurrentLinkedDeque<IdlePort<T>> idle = new ConcurrentLinkedDeque<>();
+
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private volatile boolean retired;
+
+        private TokenPool(int maxPorts) {
+            this.permits = new Semaphore(maxPorts, true);
+        }
+    }
+
+    private static class IdlePort<T> {
+
+        private final T port;
+
+        private final long idleSince = System.currentTimeMillis();
+
+        private IdlePort(T port) {
+            this.port = port;
+        }
+    }
+}
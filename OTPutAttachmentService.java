@@ -1,5 +1,8 @@
 package amanda.edms;
 
+import amanda.edms.OTContentHashStore.StoredHash;
+import amanda.edms.OTFolderCache.FolderKey;
+import amanda.edms.OTPortPool.PooledPort;
 import com.opentext.livelink.service.core.ContentService;
 import com.opentext.livelink.service.core.FileAtts;
 import com.opentext.livelink.service.core.StringValue;
@@ -7,21 +10,33 @@ import com.opentext.livelink.service.docman.AttributeGroup;
 import com.opentext.livelink.service.docman.DocumentManagement;
 import com.opentext.livelink.service.docman.Metadata;
 import com.opentext.livelink.service.docman.Node;
+import com.opentext.livelink.service.docman.Version;
 import com.sun.xml.internal.ws.developer.JAXWSProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.activation.DataHandler;
+import javax.activation.DataSource;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.soap.SOAPException;
 import javax.xml.ws.BindingProvider;
+import javax.xml.ws.WebServiceException;
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Service class to store attachments to OpenText server
@@ -32,6 +47,8 @@ public class OTPutAttachmentService {
 
     private static final String COMMENTS_DEFAULT = "Uploaded by AMANDA EDMS Adaptor";
 
+    private static final String FOLDER_COMMENT = "Folder Loaded by AMANDA-PRISM-Loader";
+
     // Note: This will result in the creation of a major version.
     private static final Boolean ADVANCED_VERSION_CONTROL = Boolean.TRUE;
 
@@ -41,49 +58,140 @@ public class OTPutAttachmentService {
 
     private final AmandaMetaDataService metaDataService;
 
+    private final OTFolderCache folderCache = OTFolderCache.getInstance();
+
+    private final OTUploadTuning uploadTuning = OTUploadTuning.getInstance();
+
+    // Folders of this upload that were resolved from the folder cache
+    private final List<FolderKey> cachedFolderKeys = new ArrayList<>();
+
     public OTPutAttachmentService(Connection connection, String authToken) {
         this.connection = connection;
         this.authToken = authToken;
         metaDataService = new AmandaMetaDataService(connection);
     }
 
-    public String putAttachment(Integer attachmentRSN, Long edmsId, OTFileContent fileContent) throws SOAPException, SQLException, DatatypeConfigurationException, MalformedURLException {
-        AttachmentMetaData attachmentMetaData = metaDataService.getAttachmentMetaData(attachmentRSN);
-        String fileName = attachmentRSN + "_" + fileContent.getFileName();
+    public String putAttachment(Integer attachmentRSN, Long edmsId, OTFileContent fileContent) throws SOAPException, SQLException, DatatypeConfigurationException, IOException {
+        return putAttachment(resolveAttachmentContext(attachmentRSN), edmsId, fileContent);
+    }
 
-        DocumentManagement docManClient = OpenTextServices.getDocService(authToken);
+    /**
+     * Fetches the AMANDA data of the attachment and builds its categories
+     */
+    public AttachmentContext resolveAttachmentContext(Integer attachmentRSN) throws SOAPException, SQLException, MalformedURLException {
+        try (PooledPort<DocumentManagement> docPort = OpenTextServices.borrowDocService(authToken)) {
+            return resolveAttachmentContext(docPort.get(), attachmentRSN);
+        }
+    }
 
-        //You can customize parentId through edms.properties file
-        Long parentId = getParentId(attachmentRSN);
-        if (parentId == null) {
-            throw new RuntimeException("Unable to find ParentID for the AttachmentRSN: " + attachmentRSN);
+    /**
+     * Builds the context of another attachment in the same AMANDA folder as the given context, only the attachment
+     * description and type are fetched
+     */
+    public AttachmentContext resolveAttachmentContext(AttachmentContext folderContext, Integer attachmentRSN) throws SQLException {
+        AttachmentMetaData attachmentMetaData;
+        synchronized (connection) {
+            attachmentMetaData = metaDataService.getAttachmentMetaData(attachmentRSN);
         }
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Found ParentID: {} for the AttachmentRSN: {}", parentId, attachmentRSN);
+        return folderContext.forAttachment(attachmentRSN, attachmentMetaData);
+    }
+
+    /**
+     * Resolves the contexts of the attachments of an AMANDA folder, see {@link #resolveAttachmentContexts(Collection)}
+     */
+    public Map<Integer, AttachmentContext> resolveFolderContexts(Integer folderRSN) throws SOAPException, SQLException, MalformedURLException {
+        AmandaMetaDataService prefetchService = new AmandaMetaDataService(connection);
+        List<Integer> attachmentRSNs;
+        synchronized (connection) {
+            attachmentRSNs = prefetchService.prefetchFolderAttachments(folderRSN);
         }
-        FolderData folderData = metaDataService.getFolderData(attachmentRSN);
-        String[][] permitMetaData = metaDataService.getStandalonePermitData(folderData);
-        Integer folderRSN = Integer.valueOf(permitMetaData[1][6]);
-        int numberOfPermits = Integer.parseInt(permitMetaData[0][0]);
-        List<String> parcelMetaData = metaDataService.getParcelInfo(folderRSN);
+        return resolveFolderContexts(prefetchService, Collections.singletonMap(folderRSN, attachmentRSNs));
+    }
 
-        Metadata attachmentData = new Metadata();
-        AttributeGroup CTTaxAccount = buildTaxAccountCategory(parcelMetaData.toArray(new String[parcelMetaData.size()]));
-        if (CTTaxAccount != null) {
-            attachmentData.getAttributeGroups().add(CTTaxAccount);
+    /**
+     * Resolves the contexts of several attachments. The folder, permit, parcel and tax data and the categories are
+     * resolved once per AMANDA folder, the descriptions and types of all the attachments are fetched with
+     * set-based queries.
+     *
+     * @return the contexts keyed by attachment RSN, attachments that aren't attached to an AMANDA folder are left out
+     */
+    public Map<Integer, AttachmentContext> resolveAttachmentContexts(Collection<Integer> attachmentRSNs) throws SOAPException, SQLException, MalformedURLException {
+        AmandaMetaDataService prefetchService = new AmandaMetaDataService(connection);
+        Map<Integer, Integer> folderByAttachment;
+        synchronized (connection) {
+            folderByAttachment = prefetchService.prefetchAttachments(attachmentRSNs);
         }
-        AttributeGroup CTPermit = buildPermitCategory(permitMetaData, numberOfPermits);
-        if (CTPermit != null) {
-            attachmentData.getAttributeGroups().add(CTPermit);
+        Map<Integer, List<Integer>> attachmentsByFolder = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> attachment : folderByAttachment.entrySet()) {
+            attachmentsByFolder.computeIfAbsent(attachment.getValue(), key -> new ArrayList<>()).add(attachment.getKey());
+        }
+        return resolveFolderContexts(prefetchService, attachmentsByFolder);
+    }
+
+    private Map<Integer, AttachmentContext> resolveFolderContexts(AmandaMetaDataService prefetchService, Map<Integer, List<Integer>> attachmentsByFolder) throws SOAPException, SQLException, MalformedURLException {
+        Map<Integer, AttachmentContext> contexts = new LinkedHashMap<>();
+        try (PooledPort<DocumentManagement> docPort = OpenTextServices.borrowDocService(authToken)) {
+            for (List<Integer> attachmentRSNs : attachmentsByFolder.values()) {
+                if (attachmentRSNs.isEmpty()) {
+                    continue;
+                }
+                // The metadata service caches the data of a single folder, each folder gets its own
+                AttachmentContext folderContext = resolveAttachmentContext(docPort.get(), new AmandaMetaDataService(connection), attachmentRSNs.get(0));
+                for (Integer attachmentRSN : attachmentRSNs) {
+                    AttachmentMetaData attachmentMetaData;
+                    synchronized (connection) {
+                        attachmentMetaData = prefetchService.getAttachmentMetaData(attachmentRSN);
+                    }
+                    contexts.put(attachmentRSN, folderContext.forAttachment(attachmentRSN, attachmentMetaData));
+                }
+            }
+        }
+        return contexts;
+    }
+
+    public String putAttachment(AttachmentContext attachmentContext, Long edmsId, OTFileContent fileContent) throws SOAPException, SQLException, DatatypeConfigurationException, IOException {
+        String fileName = attachmentContext.getAttachmentRSN() + "_" + fileContent.getFileName();
+        cachedFolderKeys.clear();
+        File contentFile = fileContent.getFilePath() != null ? new File(fileContent.getFilePath()) : null;
+        if (contentFile != null && !contentFile.isFile()) {
+            contentFile = null;
+        }
+
+        // Skip the new version when its content is the same as the content of the current version, the categories
+        // are still updated
+        String contentHash = fileContent.getContentHash();
+        boolean dedupEnabled = EdmsProperties.isDedupEnabled();
+        if (dedupEnabled && edmsId != null && edmsId > 0) {
+            if (contentHash == null && contentFile != null) {
+                contentHash = hashFile(contentFile);
+            }
+            StoredHash storedHash = contentHash != null ? getStoredHash(String.valueOf(edmsId)) : null;
+            if (storedHash != null && contentHash.equals(storedHash.getContentHash())
+                    && applyUnchangedVersion(attachmentContext, edmsId, storedHash.getVersionNum())) {
+                long contentSize = contentFile != null ? contentFile.length() : (fileContent.getSize() != null ? fileContent.getSize() : 0L);
+                OTContentHashStore.recordSkippedUpload(contentSize);
+                LOGGER.info("EDMS:: Content of EDMS ID {} is unchanged, updated its categories and skipped the upload of {} bytes", edmsId, contentSize);
+                return String.valueOf(edmsId);
+            }
         }
-        AttributeGroup documentInfo = buildDocumentCategory(attachmentMetaData);
-        attachmentData.getAttributeGroups().add(documentInfo);
 
         String contextId;
-        if (edmsId == null || edmsId == 0) {
-            contextId = docManClient.createDocumentContext(parentId, fileName, COMMENTS_DEFAULT, ADVANCED_VERSION_CONTROL, attachmentData);
-        } else {
-            contextId = docManClient.addMajorVersionContext(edmsId, attachmentData);
+        try (PooledPort<DocumentManagement> docPort = OpenTextServices.borrowDocService(authToken)) {
+            DocumentManagement docManClient = docPort.get();
+            try {
+                contextId = createContext(docManClient, attachmentContext, edmsId, fileName);
+            } catch (WebServiceException exp) {
+                if (cachedFolderKeys.isEmpty() || OTAuthService.isAuthenticationFault(exp)) {
+                    throw exp;
+                }
+                // A cached folder may have been deleted in OpenText, resolve the folders again and retry once
+                LOGGER.warn("EDMS:: Creating the document context failed with cached folders, resolving the folders again", exp);
+                for (FolderKey folderKey : cachedFolderKeys) {
+                    folderCache.invalidate(folderKey);
+                }
+                cachedFolderKeys.clear();
+                contextId = createContext(docManClient, attachmentContext, edmsId, fileName);
+            }
         }
         LOGGER.debug("Context created: {}", contextId);
 
@@ -93,37 +201,231 @@ public class OTPutAttachmentService {
         currentTime.setTime(new Date());
         fileAtts.setCreatedDate(DatatypeFactory.newInstance().newXMLGregorianCalendar(currentTime));
         fileAtts.setFileName(fileContent.getFileName());
-        if (fileContent.getSize() <= 0) {
+        // A local file is sent straight from its path, it can be read again when the upload is retried
+        DataSource contentSource;
+        Long fileSize = fileContent.getSize();
+        if (contentFile != null) {
+            FileChannelDataSource fileSource = new FileChannelDataSource(fileName, contentFile, fileContent.getMimeType());
+            fileSize = fileSource.getSize();
+            contentSource = fileSource;
+        } else {
+            contentSource = new InputStreamDataSource(fileName, fileContent.getContent());
+        }
+        if (fileSize == null || fileSize <= 0) {
             throw new RuntimeException("File size is required");
         }
-        fileAtts.setFileSize(fileContent.getSize() * 1L);
+        fileAtts.setFileSize(fileSize);
+        boolean verify = EdmsProperties.isChecksumVerify();
+        DigestDataSource digestSource = null;
+        if (verify || (dedupEnabled && contentHash == null)) {
+            digestSource = new DigestDataSource(contentSource);
+            contentSource = digestSource;
+        }
         fileAtts.setModifiedDate(DatatypeFactory.newInstance().newXMLGregorianCalendar(currentTime));
 
+        String objectID;
         // NOTE: ContentService is the only service that requires MTOM support
-        ContentService contentServiceClient = OpenTextServices.getContentService(authToken, contextId, fileAtts);
-        // The number of bytes to write in each chunk
-        final int CHUNK_SIZE = 10240;
+        try (PooledPort<ContentService> contentPort = OpenTextServices.borrowContentService(authToken, contextId, fileAtts)) {
+            ContentService contentServiceClient = contentPort.get();
+            // The number of bytes to write in each chunk, see OTUploadTuning
+            int chunkSize = uploadTuning.getChunkSize(fileSize);
 
-        // Enable streaming and use chunked transfer encoding to send the request body to support large files
-        ((BindingProvider) contentServiceClient).getRequestContext().put(JAXWSProperties.HTTP_CLIENT_STREAMING_CHUNK_SIZE, CHUNK_SIZE);
+            // Enable streaming and use chunked transfer encoding to send the request body to support large files
+            ((BindingProvider) contentServiceClient).getRequestContext().put(JAXWSProperties.HTTP_CLIENT_STREAMING_CHUNK_SIZE, chunkSize);
+            OTTransport.getInstance().useUploadTimeout(contentServiceClient);
 
 
-        LOGGER.debug("Uploading document...");
-        String objectID = contentServiceClient.uploadContent(new DataHandler(new InputStreamDataSource(fileName, fileContent.getContent())));
+            LOGGER.debug("Uploading document with chunk size {}...", chunkSize);
+            long uploadStart = System.currentTimeMillis();
+            objectID = contentServiceClient.uploadContent(new DataHandler(contentSource));
+            uploadTuning.record(fileSize, chunkSize, System.currentTimeMillis() - uploadStart);
+        }
         LOGGER.debug("SUCCESS!\n");
         LOGGER.debug("New document uploaded with ID = " + objectID);
         // if the EDMS ID already exists then it means that we have uploaded a newer version
         // in that case use the original EDMS ID instead of new version id.
-        if (edmsId != null && edmsId > 0) {
-            return String.valueOf(edmsId);
+        String documentId = edmsId != null && edmsId > 0 ? String.valueOf(edmsId) : objectID;
+        if (digestSource != null) {
+            contentHash = digestSource.getHash();
+        }
+        Version storedVersion = null;
+        if (verify || (dedupEnabled && contentHash != null)) {
+            try (PooledPort<DocumentManagement> docPort = OpenTextServices.borrowDocService(authToken)) {
+                storedVersion = docPort.get().getVersion(Long.parseLong(documentId), 0);
+            }
+        }
+        if (verify) {
+            verifyUpload(documentId, digestSource, fileSize, storedVersion);
+        }
+        if (dedupEnabled) {
+            storeHash(documentId, contentHash, fileSize, storedVersion);
+        }
+        return documentId;
+    }
+
+    /**
+     * Compares the number of bytes that were sent and the size stored by OpenText with the file size. Content
+     * Server doesn't expose a content checksum through DocumentManagement, so the SHA-256 of the sent bytes can't be
+     * checked against the server. The document or version exists when the check fails, the exception carries its
+     * EDMS ID so a retry doesn't create a duplicate.
+     */
+    private void verifyUpload(String documentId, DigestDataSource digestSource, long fileSize, Version storedVersion) throws OTChecksumMismatchException {
+        if (digestSource.getByteCount() != fileSize) {
+            throw OTContentHashStore.checksumMismatch("Size of the content uploaded as EDMS ID " + documentId + " doesn't match the file size",
+                    fileSize, digestSource.getByteCount(), documentId);
+        }
+        if (storedVersion != null && storedVersion.getFileDataSize() != null && storedVersion.getFileDataSize() != fileSize) {
+            throw OTContentHashStore.checksumMismatch("Size stored by OpenText for EDMS ID " + documentId + " doesn't match the uploaded content",
+                    fileSize, storedVersion.getFileDataSize(), documentId);
+        }
+    }
+
+    /**
+     * Applies the categories to a document whose content didn't change, they may have been edited in AMANDA
+     *
+     * @return false when the current version isn't the version the hash was stored with, the content is uploaded
+     */
+    private boolean applyUnchangedVersion(AttachmentContext attachmentContext, Long edmsId, long hashedVersionNum) throws SOAPException, SQLException, MalformedURLException {
+        try (PooledPort<DocumentManagement> docPort = OpenTextServices.borrowDocService(authToken)) {
+            DocumentManagement docManClient = docPort.get();
+            Version currentVersion = docManClient.getVersion(edmsId, 0);
+            if (currentVersion == null || currentVersion.getNumber() != hashedVersionNum) {
+                LOGGER.info("EDMS:: EDMS ID {} has a newer version than its stored content hash, uploading the content", edmsId);
+                return false;
+            }
+            docManClient.setNodeMetadata(edmsId, buildMetadata(docManClient, attachmentContext));
+            return true;
+        }
+    }
+
+    private StoredHash getStoredHash(String edmsId) {
+        try {
+            synchronized (connection) {
+                return new OTContentHashStore(connection).getHash(edmsId);
+            }
+        } catch (SQLException exp) {
+            LOGGER.error("Error while reading the content hash of EDMS ID {}, uploading the content", edmsId, exp);
+            return null;
         }
+    }
 
-        return objectID;
+    private void storeHash(String edmsId, String contentHash, long contentSize, Version storedVersion) {
+        if (contentHash == null || storedVersion == null) {
+            return;
+        }
+        try {
+            synchronized (connection) {
+                new OTContentHashStore(connection).putHash(edmsId, contentHash, contentSize, storedVersion.getNumber());
+            }
+        } catch (SQLException exp) {
+            // The next upload of unchanged content is not skipped
+            LOGGER.error("Error while storing the content hash of EDMS ID {}", edmsId, exp);
+        }
     }
 
-    private AttributeGroup buildDocumentCategory(AttachmentMetaData metaData) throws SOAPException, MalformedURLException {
-        DocumentManagement docManClient = OpenTextServices.getDocService(authToken);
+    private static String hashFile(File contentFile) {
+        try {
+            return OTContentHashStore.sha256(contentFile);
+        } catch (IOException exp) {
+            LOGGER.error("Error while hashing {}, uploading the content", contentFile, exp);
+            return null;
+        }
+    }
+
+    /**
+     * Looks up a document created by an earlier upload of the attachment, used to make a retried upload of a new
+     * document idempotent
+     *
+     * @return the node ID of the document or null when it wasn't uploaded
+     */
+    public Long findUploadedDocument(AttachmentContext attachmentContext, OTFileContent fileContent) throws SQLException, SOAPException, MalformedURLException {
+        String fileName = attachmentContext.getAttachmentRSN() + "_" + fileContent.getFileName();
+        try (PooledPort<DocumentManagement> docPort = OpenTextServices.borrowDocService(authToken)) {
+            DocumentManagement docManClient = docPort.get();
+            Long parentId = getParentId(docManClient, attachmentContext);
+            if (parentId == null) {
+                return null;
+            }
+            Node documentNode = docManClient.getNodeByName(parentId, fileName);
+            return documentNode != null ? documentNode.getID() : null;
+        }
+    }
 
+    /**
+     * Fetches the AMANDA data of the attachment and builds the Permit and Tax Account categories, exactly once per upload
+     */
+    private AttachmentContext resolveAttachmentContext(DocumentManagement docManClient, Integer attachmentRSN) throws SQLException {
+        return resolveAttachmentContext(docManClient, metaDataService, attachmentRSN);
+    }
+
+    /**
+     * @param metaDataService caches the folder level data of one AMANDA folder
+     */
+    private AttachmentContext resolveAttachmentContext(DocumentManagement docManClient, AmandaMetaDataService metaDataService, Integer attachmentRSN) throws SQLException {
+        AttachmentMetaData attachmentMetaData;
+        FolderData folderData;
+        List<PermitRecord> permits;
+        List<String> parcelMetaData;
+        Map<String, List<TaxAddressRecord>> taxMetaData;
+        // The connection may be shared by parallel uploads (OpenTextClient.putAttachments), keep its queries serialized
+        synchronized (connection) {
+            if (EdmsProperties.isMetadataCombinedFetch()) {
+                // Fills the caches of the metadata service, the getters below don't query again
+                metaDataService.fetchAttachmentData(attachmentRSN);
+            }
+            attachmentMetaData = metaDataService.getAttachmentMetaData(attachmentRSN);
+            folderData = metaDataService.getFolderData(attachmentRSN);
+            if (folderData == null) {
+                throw new RuntimeException("Unable to fetch folder data for the attachment RSN: " + attachmentRSN);
+            }
+            permits = metaDataService.getStandalonePermitData(folderData);
+            if (permits.isEmpty()) {
+                throw new RuntimeException("Unable to fetch permit data for the attachment RSN: " + attachmentRSN);
+            }
+            Integer folderRSN = Integer.valueOf(permits.get(0).getFolderRSN());
+            parcelMetaData = metaDataService.getParcelInfo(folderRSN);
+            taxMetaData = metaDataService.getTaxMetaDataInfo(parcelMetaData);
+        }
+
+        AttributeGroup CTPermit = buildPermitCategory(docManClient, permits);
+        AttributeGroup CTTaxAccount = buildTaxAccountCategory(docManClient, parcelMetaData.toArray(new String[parcelMetaData.size()]), taxMetaData);
+        return new AttachmentContext(attachmentRSN, attachmentMetaData, folderData, permits, parcelMetaData, CTPermit, CTTaxAccount);
+    }
+
+    private String createContext(DocumentManagement docManClient, AttachmentContext attachmentContext, Long edmsId, String fileName) throws SQLException {
+        //You can customize parentId through edms.properties file
+        Long parentId = getParentId(docManClient, attachmentContext);
+        if (parentId == null) {
+            throw new RuntimeException("Unable to find ParentID for the AttachmentRSN: " + attachmentContext.getAttachmentRSN());
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Found ParentID: {} for the AttachmentRSN: {}", parentId, attachmentContext.getAttachmentRSN());
+        }
+
+        Metadata attachmentData = buildMetadata(docManClient, attachmentContext);
+        if (edmsId == null || edmsId == 0) {
+            return docManClient.createDocumentContext(parentId, fileName, COMMENTS_DEFAULT, ADVANCED_VERSION_CONTROL, attachmentData);
+        }
+        return docManClient.addMajorVersionContext(edmsId, attachmentData);
+    }
+
+    /**
+     * Tax Account, Permit and Document Info categories of the document
+     */
+    private Metadata buildMetadata(DocumentManagement docManClient, AttachmentContext attachmentContext) {
+        Metadata attachmentData = new Metadata();
+        if (attachmentContext.getTaxAccountCategory() != null) {
+            attachmentData.getAttributeGroups().add(attachmentContext.getTaxAccountCategory());
+        }
+        if (attachmentContext.getPermitCategory() != null) {
+            attachmentData.getAttributeGroups().add(attachmentContext.getPermitCategory());
+        }
+        AttributeGroup documentInfo = buildDocumentCategory(docManClient, attachmentContext.getAttachmentMetaData());
+        attachmentData.getAttributeGroups().add(documentInfo);
+        return attachmentData;
+    }
+
+    private AttributeGroup buildDocumentCategory(DocumentManagement docManClient, AttachmentMetaData metaData) {
         //=================================================================================================
 
         // Create Meta Data for Categories (Document Info, Permit, Tax Account)
@@ -135,13 +437,13 @@ public class OTPutAttachmentService {
 
         AttributeGroup DocumentInfoCategoryTemplate = null;
 
-        // Call the getCategoryTemplate() method to get the Document Info category template
+        // Get a private copy of the Document Info category template from the template cache
 
         LOGGER.debug("Getting Document Info Category Template...");
 
         // DocumentInfoCategoryTemplate = docManClient.getCategoryTemplate(Globals.DocumentInfo_ID);
         //You can customize category ID through edms.properties file
-        DocumentInfoCategoryTemplate = docManClient.getCategoryTemplate(EdmsProperties.getDocumentInfoId());
+        DocumentInfoCategoryTemplate = OTCategoryTemplateCache.getInstance().getTemplate(docManClient, EdmsProperties.getDocumentInfoId());
 
 
         // Set the Document Info category values
@@ -168,91 +470,54 @@ public class OTPutAttachmentService {
         return DocumentInfoCategoryTemplate;
     }
 
-    private Long getParentId(Integer attachmentRSN) throws SQLException, SOAPException, MalformedURLException {
-        FolderData folderData = metaDataService.getFolderData(attachmentRSN);
-        if (folderData != null) {
-            String[][] permitMetaData = metaDataService.getStandalonePermitData(folderData);
-            int numberOfPermits = Integer.parseInt(permitMetaData[0][0]);
-            Integer folderRSN = Integer.valueOf(permitMetaData[1][6]);
-            String parcelNumber = permitMetaData[1][5];
-            String permitNumber = permitMetaData[1][2];
-            List<String> parcelMetaData = metaDataService.getParcelInfo(folderRSN);
-
-            String[] docInfo = {"", "AMANDA Folder", "", "AMANDA-PRISM Loader Created Folder"};
-            AttributeGroup CTDocInfo = OpenTextServices.buildDocumentCategory(authToken, docInfo);
-            AttributeGroup CTPermit = buildPermitCategory(permitMetaData, numberOfPermits);
-            if (CTDocInfo == null) {
-                return null;
-            }
+    private Long getParentId(DocumentManagement docManClient, AttachmentContext attachmentContext) throws SQLException {
+        String[] docInfo = {"", "AMANDA Folder", "", "AMANDA-PRISM Loader Created Folder"};
+        AttributeGroup CTDocInfo = OpenTextServices.buildDocumentCategory(docManClient, docInfo);
+        if (CTDocInfo == null) {
+            return null;
+        }
 
-            // Meta Data to Store Document, Permit and Tax Info
-            Metadata docmetadata = new Metadata();
-            docmetadata.getAttributeGroups().add(CTDocInfo);
-            docmetadata.getAttributeGroups().add(CTPermit);
+        // Meta Data to Store Document, Permit and Tax Info
+        Metadata docmetadata = new Metadata();
+        docmetadata.getAttributeGroups().add(CTDocInfo);
+        docmetadata.getAttributeGroups().add(attachmentContext.getPermitCategory());
 
-            AttributeGroup CTTaxAccount = buildTaxAccountCategory(parcelMetaData.toArray(new String[parcelMetaData.size()]));
-            if (CTTaxAccount == null) {
-                //Put into NO Tax account
-                return getNoTaxParentId(permitNumber, docmetadata);
-            } else {
-                docmetadata.getAttributeGroups().add(CTTaxAccount);
-                Long parentId = getTaxParentId(parcelNumber, docmetadata);
-                return getPermitParentId(permitNumber, docmetadata, parentId);
-            }
+        AttributeGroup CTTaxAccount = attachmentContext.getTaxAccountCategory();
+        if (CTTaxAccount == null) {
+            //Put into NO Tax account
+            return getNoTaxParentId(docManClient, attachmentContext.getPermitNumber(), docmetadata);
+        } else {
+            docmetadata.getAttributeGroups().add(CTTaxAccount);
+            Long parentId = getTaxParentId(docManClient, attachmentContext.getParcelNumber(), docmetadata);
+            return getPermitParentId(docManClient, attachmentContext.getPermitNumber(), docmetadata, parentId);
         }
-        throw new RuntimeException("Unable to fetch folder data for the attachment RSN: " + attachmentRSN);
     }
 
-    private Long getPermitParentId(String PermitNumber, Metadata docmetadata, long ParentID) throws MalformedURLException, SOAPException {
-        DocumentManagement docManClient = OpenTextServices.getDocService(authToken);
-        String OTcomment = "Folder Loaded by AMANDA-PRISM-Loader";
-
+    private Long getPermitParentId(DocumentManagement docManClient, String PermitNumber, Metadata docmetadata, long ParentID) throws SQLException {
         // Now Get the Tax ID if it Exists
         // Find TaxID Folder using the TAX Account Parent folder we just retreived
-        Node PIDNode = docManClient.getNodeByName(ParentID, PermitNumber);
-        if (PIDNode == null) {
-            LOGGER.debug("Permit Folder doesn't Exist...we must now create it");
-            LOGGER.debug("Creating Permit Folder");
-            PIDNode = docManClient.createFolder(ParentID, PermitNumber, OTcomment, docmetadata);
-            return (PIDNode.getID());
-        } else {
-            LOGGER.debug("Permit Node Found:" + PIDNode.getID());
-            return (PIDNode.getID());
-        }
+        Long permitNodeId = resolveFolder(docManClient, ParentID, PermitNumber, docmetadata);
+        LOGGER.debug("Permit Node Found:" + permitNodeId);
+        return permitNodeId;
     }
 
-    private Long getNoTaxParentId(String PermitNumber, Metadata docmetadata) throws MalformedURLException, SOAPException {
-        DocumentManagement docManClient = OpenTextServices.getDocService(authToken);
-        Node PIDNode = new Node();
-        String OTcomment = "Folder Loaded by AMANDA-PRISM-Loader";
-
+    private Long getNoTaxParentId(DocumentManagement docManClient, String PermitNumber, Metadata docmetadata) throws SQLException {
         //===================================================================================================================
 
         // Get the No Tax Account Folder Node ID
         //     Used later to Verify If Parcel/TAX ID already Exists and Add it if it doesn't
 
         //==================================================================================================================
-        PIDNode = docManClient.getNodeByPath(EdmsProperties.getWorkspaceRootId(), EdmsProperties.getNoTaxAccountFolderArray());
-        Long ParentID = PIDNode.getID();
+        Long ParentID = getRootFolderId(docManClient, EdmsProperties.getNoTaxAccountFolderArray());
         LOGGER.debug("Tax Account Node ID:" + ParentID);
 
-        // Now Get the Tax ID if it Exists
-        // Find TaxID Folder using the TAX Account Parent folder we just retreived
-        PIDNode = docManClient.getNodeByName(ParentID, PermitNumber);
-        if (PIDNode == null) {
-            LOGGER.debug("TaxID Folder doesn't Exist...we must now create it");
-            LOGGER.debug("Creating Permit Number (Non Tax Account) Folder");
-            PIDNode = docManClient.createFolder(ParentID, PermitNumber, OTcomment, docmetadata);
-            return (PIDNode.getID());
-        } else {
-            LOGGER.debug("Tax ID: Node Found" + PIDNode.getID());
-            return (PIDNode.getID());
-        }
+        // Now Get the Permit Number (Non Tax Account) folder, it is created if it doesn't exist
+        Long permitNodeId = resolveFolder(docManClient, ParentID, PermitNumber, docmetadata);
+        LOGGER.debug("Tax ID: Node Found" + permitNodeId);
+        return permitNodeId;
     }
 
-    private Long getTaxParentId(String TaxID, Metadata docmetadata) throws MalformedURLException, SOAPException {
-        DocumentManagement docManClient = OpenTextServices.getDocService(authToken);
-        String OTcomment = "Folder Loaded by AMANDA-PRISM-Loader";
+    private Long getTaxParentId(DocumentManagement docManClient, String TaxID, Metadata docmetadata) throws SQLException {
         LOGGER.debug("Getting Tax Parent ID for TaxID:" + TaxID);
 
         //===================================================================================================================
@@ -261,36 +526,79 @@ public class OTPutAttachmentService {
         //     Used later to Verify If Parcel/TAX ID already Exists and Add it if it doesn't
 
         //==================================================================================================================
-        Node PIDNode = new Node();
-        PIDNode = docManClient.getNodeByPath(EdmsProperties.getWorkspaceRootId(), EdmsProperties.getTaxAccountFolderArray());
-        Long ParentID = PIDNode.getID();
+        Long ParentID = getRootFolderId(docManClient, EdmsProperties.getTaxAccountFolderArray());
 
-        // Now Get the Tax ID if it Exists
-        // Find TaxID Folder using the TAX Account Parent folder we just retreived
-        PIDNode = docManClient.getNodeByName(ParentID, TaxID);
-        if (PIDNode != null) {
-            LOGGER.debug("Tax ID:" + TaxID + "Open Text Node Found ID:" + PIDNode.getID());
-            return (PIDNode.getID());
+        // Now Get the Tax ID folder, it is created with Tax Only Meta Data if it doesn't exist
+        Long taxNodeId = resolveFolder(docManClient, ParentID, TaxID, docmetadata);
+        LOGGER.debug("Tax ID:" + TaxID + " Open Text Node Found ID:" + taxNodeId);
+        return taxNodeId;
+    }
+
+    /**
+     * Returns the node ID of the named folder under the parent, creating the folder when it doesn't exist.
+     * Only one thread resolves a given folder at a time, see {@link OTFolderCache#resolve}.
+     */
+    private Long resolveFolder(DocumentManagement docManClient, long parentId, String folderName, Metadata docmetadata) throws SQLException {
+        FolderKey folderKey = FolderKey.byName(parentId, folderName);
+        Long cachedId = getCachedFolder(folderKey);
+        if (cachedId != null) {
+            return cachedId;
         }
+        return folderCache.resolve(folderKey, () -> {
+            AmandaFolderLock folderLock = EdmsProperties.isDatabaseFolderLock() ? new AmandaFolderLock(connection) : null;
+            if (folderLock != null) {
+                folderLock.acquire(folderKey.toString());
+            }
+            try {
+                Node folderNode = docManClient.getNodeByName(parentId, folderName);
+                if (folderNode == null) {
+                    LOGGER.debug("Folder " + folderName + " doesn't Exist...we must now create it");
+                    folderNode = docManClient.createFolder(parentId, folderName, FOLDER_COMMENT, docmetadata);
+                }
+                return folderNode.getID();
+            } finally {
+                if (folderLock != null) {
+                    folderLock.release(folderKey.toString());
+                }
+            }
+        });
+    }
 
-        LOGGER.debug("Creating New Tax ID Folder with Tax Only Meta Data");
-        PIDNode = docManClient.createFolder(ParentID, TaxID, OTcomment, docmetadata);
-        LOGGER.debug("New Tax ID Folder Created Tax ID:" + TaxID);
-        return (PIDNode.getID());
+    /**
+     * Resolves one of the configured folder paths under the workspace root
+     */
+    private Long getRootFolderId(DocumentManagement docManClient, List<String> folderPath) {
+        Integer workspaceRootId = EdmsProperties.getWorkspaceRootId();
+        FolderKey folderKey = FolderKey.byPath(workspaceRootId, folderPath);
+        Long cachedId = getCachedFolder(folderKey);
+        if (cachedId != null) {
+            return cachedId;
+        }
+        Long nodeId = docManClient.getNodeByPath(workspaceRootId, folderPath).getID();
+        folderCache.put(folderKey, nodeId);
+        return nodeId;
     }
 
-    private AttributeGroup buildTaxAccountCategory(String parcelData[]) throws MalformedURLException, SOAPException, SQLException {
-        DocumentManagement docManClient = OpenTextServices.getDocService(authToken);
-        AttributeGroup taxAccountCategoryTemplate = docManClient.getCategoryTemplate(EdmsProperties.getTaxAccountId());
+    private Long getCachedFolder(FolderKey folderKey) {
+        Long nodeId = folderCache.get(folderKey);
+        if (nodeId != null) {
+            // Remembered so the entry can be dropped if OpenText no longer knows the node
+            cachedFolderKeys.add(folderKey);
+        }
+        return nodeId;
+    }
+
+    private AttributeGroup buildTaxAccountCategory(DocumentManagement docManClient, String parcelData[], Map<String, List<TaxAddressRecord>> TaxMetaDataByParcel) {
+        AttributeGroup taxAccountCategoryTemplate = OTCategoryTemplateCache.getInstance().getTemplate(docManClient, EdmsProperties.getTaxAccountId());
         int Number_Of_Parcels = parcelData.length;
         if (Number_Of_Parcels == 0) {
             return null;
         }
 
         // Get Primary Property Info
-        String[][] TaxMetaData = metaDataService.getTaxMetaDataInfo(parcelData[0]);
+        List<TaxAddressRecord> TaxMetaData = TaxMetaDataByParcel.get(parcelData[0]);
         // Set the Tax Account category values
-        if (TaxMetaData[0][0] == null || TaxMetaData[0][0].equals("0")) {
+        if (TaxMetaData.isEmpty()) {
             LOGGER.debug("Build Tax Account Category- TaxMetaData Empty! ");
             return null;
         }
@@ -302,7 +610,7 @@ public class OTPutAttachmentService {
         // Get Alternate Tax ID
         StringValue AltTaxIDByValue = (StringValue) taxAccountCategoryTemplate.getValues().get(1);
         AltTaxIDByValue.getValues().clear();
-        AltTaxIDByValue.getValues().add(TaxMetaData[1][1]);
+        AltTaxIDByValue.getValues().add(TaxMetaData.get(0).getAlternateTaxId());
 
         // Related Tax Account
         StringValue RelatedTaxIDByValue = (StringValue) taxAccountCategoryTemplate.getValues().get(2);
@@ -314,129 +622,103 @@ public class OTPutAttachmentService {
         // Property Address
         StringValue PropertyAddressByValue = (StringValue) taxAccountCategoryTemplate.getValues().get(3);
         PropertyAddressByValue.getValues().clear();
-        PropertyAddressByValue.getValues().add(TaxMetaData[1][2]);
-        String MainAddress = TaxMetaData[1][2];
+        PropertyAddressByValue.getValues().add(TaxMetaData.get(0).getAddress());
+        String MainAddress = TaxMetaData.get(0).getAddress();
 
         // City
         StringValue CityByValue = (StringValue) taxAccountCategoryTemplate.getValues().get(5);
         CityByValue.getValues().clear();
-        CityByValue.getValues().add(TaxMetaData[1][3]);
+        CityByValue.getValues().add(TaxMetaData.get(0).getCity());
 
         // Zip
         StringValue ZipByValue = (StringValue) taxAccountCategoryTemplate.getValues().get(6);
         ZipByValue.getValues().clear();
-        if (TaxMetaData[1][4].length() > 5) {
-            ZipByValue.getValues().add(TaxMetaData[1][4].substring(0, 5));
+        if (TaxMetaData.get(0).getZip().length() > 5) {
+            ZipByValue.getValues().add(TaxMetaData.get(0).getZip().substring(0, 5));
         } else {
-            ZipByValue.getValues().add(TaxMetaData[1][4]);
+            ZipByValue.getValues().add(TaxMetaData.get(0).getZip());
         }
         // Related Property Address
         StringValue RelatedAddrByValue = (StringValue) taxAccountCategoryTemplate.getValues().get(4);
         RelatedAddrByValue.getValues().clear();
-        int Number_Of_RelatedAddr = 0;
-        String[] RelatedAddr = new String[200];
+        // Unique addresses in the order they were found, the main address is listed separately
+        Set<String> RelatedAddr = new LinkedHashSet<>();
 
         for (int i = 0; i < Number_Of_Parcels; i += 1) {
-            // Get Primary Property Info
-            TaxMetaData = metaDataService.getTaxMetaDataInfo(parcelData[i]);
-            // Set the Tax Account category values
-            if (TaxMetaData[0][0] == null || TaxMetaData[0][0].equals("0")) {
-                LOGGER.debug("Build Tax Account Category- TaxMetaData Empty! ");
-                return (null);
+            // Get Related Property Info
+            TaxMetaData = TaxMetaDataByParcel.get(parcelData[i]);
+            if (TaxMetaData.isEmpty()) {
+                LOGGER.debug("Build Tax Account Category- No TaxMetaData for related parcel " + parcelData[i]);
             } else {
-                int Number_Of_Property_Addresses = Integer.parseInt(TaxMetaData[0][0]);
-                for (int j = 1; j <= Number_Of_Property_Addresses; j += 1) {
-                    boolean Address_Found = false;
-                    for (int k = 0; k < Number_Of_RelatedAddr; k += 1) {
-                        if (RelatedAddr[k] == TaxMetaData[j][2]) {
-                            Address_Found = true;
-                        }
-                    }
-                    if (!Address_Found && (MainAddress != TaxMetaData[j][2])) {
-                        RelatedAddr[Number_Of_RelatedAddr] = TaxMetaData[j][2];
-                        RelatedAddrByValue.getValues().add(TaxMetaData[j][2]);
-                        Number_Of_RelatedAddr += 1;
+                for (TaxAddressRecord PropertyAddress : TaxMetaData) {
+                    if (!PropertyAddress.getAddress().equals(MainAddress)) {
+                        RelatedAddr.add(PropertyAddress.getAddress());
                     }
-
                 }
             }
-            if (Number_Of_RelatedAddr == 0) {
-                RelatedAddrByValue.getValues().add(""); // In Case there are no Other Addresses
-            }
+        }
+        RelatedAddrByValue.getValues().addAll(RelatedAddr);
+        if (RelatedAddr.isEmpty()) {
+            RelatedAddrByValue.getValues().add(""); // In Case there are no Other Addresses
         }
         return taxAccountCategoryTemplate;
     }
 
-    private AttributeGroup buildPermitCategory(String[][] PermitMetaData, int Number_Of_Permits) throws MalformedURLException, SOAPException {
-        DocumentManagement docService = OpenTextServices.getDocService(authToken);
-        AttributeGroup PermitCategoryTemplate = docService.getCategoryTemplate(EdmsProperties.getPermitId());
+    private AttributeGroup buildPermitCategory(DocumentManagement docManClient, List<PermitRecord> Permits) {
+        PermitRecord PrimaryPermit = Permits.get(0);
+        AttributeGroup PermitCategoryTemplate = OTCategoryTemplateCache.getInstance().getTemplate(docManClient, EdmsProperties.getPermitId());
 
         // Primary Permit Type Value
         StringValue PermitTypeByValue = (StringValue) PermitCategoryTemplate.getValues().get(0);
         PermitTypeByValue.getValues().clear();
-        PermitTypeByValue.getValues().add(PermitMetaData[1][0]);
+        PermitTypeByValue.getValues().add(PrimaryPermit.getPermitType());
 
         // Primary Permit Type Description Value
         StringValue PermitDescByValue = (StringValue) PermitCategoryTemplate.getValues().get(1);
         PermitDescByValue.getValues().clear();
-        PermitDescByValue.getValues().add(PermitMetaData[1][1]);
+        PermitDescByValue.getValues().add(PrimaryPermit.getPermitTypeDescription());
 
         // Primary Permit  Value
         StringValue PermitByValue = (StringValue) PermitCategoryTemplate.getValues().get(2);
         PermitByValue.getValues().clear();
-        PermitByValue.getValues().add(PermitMetaData[1][2]);
+        PermitByValue.getValues().add(PrimaryPermit.getPermitNumber());
 
         // Folder Name Value
         StringValue FolderNameByValue = (StringValue) PermitCategoryTemplate.getValues().get(3);
         FolderNameByValue.getValues().clear();
-        FolderNameByValue.getValues().add(PermitMetaData[1][3]);
+        FolderNameByValue.getValues().add(PrimaryPermit.getFolderName());
 
         // Related Permit Numbers
         StringValue RelatedPermitByValue = (StringValue) PermitCategoryTemplate.getValues().get(4);
         RelatedPermitByValue.getValues().clear();
 
-        String[] RelatedPermitNumberArray = new String[600];
-
-        if (Number_Of_Permits > 1) {
-            int Number_Of_Related_Permits = 0;
-            for (int i = 1; i < Number_Of_Permits + 1; i += 1)  // Put all the Stored Related Permits Data into Permit Category
-            {
-                boolean related_found = false;
-                for (int j = 0; j < Number_Of_Related_Permits; j += 1) {
-                    if (RelatedPermitNumberArray[j] == PermitMetaData[i][2]) {
-                        related_found = true;
-                        break;
-                    }
-                }
-                if (!related_found && (PermitMetaData[i][2] != PermitMetaData[1][2])) {
-                    RelatedPermitNumberArray[Number_Of_Related_Permits] = PermitMetaData[i][2];
-                    RelatedPermitByValue.getValues().add(PermitMetaData[i][2]);
-
-                    Number_Of_Related_Permits += 1;
-                }
+        // Put all the Stored Related Permits Data into Permit Category, each permit number once
+        Set<String> RelatedPermitNumbers = new LinkedHashSet<>();
+        for (PermitRecord Permit : Permits) {
+            if (!Permit.getPermitNumber().equals(PrimaryPermit.getPermitNumber())) {
+                RelatedPermitNumbers.add(Permit.getPermitNumber());
             }
-        } else {
-            RelatedPermitNumberArray[0] = "";
         }
+        RelatedPermitByValue.getValues().addAll(RelatedPermitNumbers);
 
         // Permit Location Value
         StringValue PermitLocationByValue = (StringValue) PermitCategoryTemplate.getValues().get(5);
         PermitLocationByValue.getValues().clear();
-        PermitLocationByValue.getValues().add(PermitMetaData[1][8]);
+        PermitLocationByValue.getValues().add(PrimaryPermit.getLocation());
 
         // Permit Row ID
         StringValue PermitRSNByValue = (StringValue) PermitCategoryTemplate.getValues().get(6);
         PermitRSNByValue.getValues().clear();
-        PermitRSNByValue.getValues().add(PermitMetaData[1][6]);
+        PermitRSNByValue.getValues().add(PrimaryPermit.getFolderRSN());
 
         // Application Tracking Number
         StringValue ApplicationTrackingNumByValue = (StringValue) PermitCategoryTemplate.getValues().get(7);
         ApplicationTrackingNumByValue.getValues().clear();
         boolean TrackingNumber_Found = false;
-        for (int i = 1; i < Number_Of_Permits + 1; i += 1)  // Put all the Stored Related Permits Data into Permit Category
+        for (PermitRecord Permit : Permits)  // Put all the Stored Related Permits Data into Permit Category
         {
-            if (!PermitMetaData[i][9].contentEquals("")) {
-                ApplicationTrackingNumByValue.getValues().add(PermitMetaData[i][9]);
+            if (!Permit.getApplicationTrackingNumber().contentEquals("")) {
+                ApplicationTrackingNumByValue.getValues().add(Permit.getApplicationTrackingNumber());
                 TrackingNumber_Found = true;
                 break;
             }
@@ -450,32 +732,20 @@ public class OTPutAttachmentService {
         StringValue SectionTownRangeByValue = (StringValue) PermitCategoryTemplate.getValues().get(8);
         SectionTownRangeByValue.getValues().clear();
 
-        int Number_Of_STR = 0;
-        String[] SecTwnRng = new String[10];
-        for (int i = 1; i < Number_Of_Permits + 1; i += 1) {
-            if (!PermitMetaData[i][10].contentEquals("")) {
-                // Check to See if we already Have this TSR
-                boolean STR_Found = false;
-                for (int j = 0; j < Number_Of_STR; j += 1) {
-                    if (PermitMetaData[i][10].equals(SecTwnRng[j])) {
-                        STR_Found = true;
-                        break;
-                    }
-                }
-                if (!STR_Found && (Number_Of_STR < 10)) // Its a New Value and not Past Max
-                {
-                    SecTwnRng[Number_Of_STR] = PermitMetaData[i][10];  // Add New STR Value
-                    SectionTownRangeByValue.getValues().add(PermitMetaData[i][10]);
-                    Number_Of_STR += 1;                                         // Point to Next
-                }
+        Set<String> SecTwnRng = new LinkedHashSet<>();
+        for (PermitRecord Permit : Permits) {
+            if (!Permit.getSectionTownshipRange().contentEquals("")) {
+                SecTwnRng.add(Permit.getSectionTownshipRange());  // Duplicate STR Values are ignored by the set
             }
         }
+        SectionTownRangeByValue.getValues().addAll(SecTwnRng);
 
         // Store Folder Description - Break Down Into Chunks of 320 Chars if Needed.
         StringValue FolderDescByValue = (StringValue) PermitCategoryTemplate.getValues().get(9);
         FolderDescByValue.getValues().clear();
 
-        int FD_Length = PermitMetaData[1][11].length();
+        String FolderDescription = PrimaryPermit.getFolderDescription();
+        int FD_Length = FolderDescription.length();
         int Number_Of_FD = 0;
         int MaxLength = 320;
         if (FD_Length < MaxLength) {
@@ -484,9 +754,9 @@ public class OTPutAttachmentService {
 
         while ((FD_Length > 0) && (Number_Of_FD < 25))  // Desc Max Size is 4000. Store in Chunks of 320 Chars until all gone.
         {
-            FolderDescByValue.getValues().add(PermitMetaData[1][11].substring(0, MaxLength)); // Store another Chuck of Data
+            FolderDescByValue.getValues().add(FolderDescription.substring(0, MaxLength)); // Store another Chuck of Data
 
-            PermitMetaData[1][11] = PermitMetaData[1][11].substring(MaxLength);
+            FolderDescription = FolderDescription.substring(MaxLength);
             FD_Length = FD_Length - 320;
             Number_Of_FD += Number_Of_FD;
             if (FD_Length < MaxLength) {
@@ -497,29 +767,18 @@ public class OTPutAttachmentService {
         // Store People Contacts
         StringValue ContactByValue = (StringValue) PermitCategoryTemplate.getValues().get(10);
         ContactByValue.getValues().clear();
-        String[] Contacts = new String[600];
         // Put Unique Contact Info as Meta Data
-        int Number_Of_Contacts = 0;
-        for (int i = 1; i < Number_Of_Permits + 1; i += 1) {
-            boolean Contact_Found = false;
-            for (int j = 0; j < Number_Of_Contacts; j += 1) {
-
-                if (PermitMetaData[i][12].equals(Contacts[j])) {
-                    Contact_Found = true;
-                    break;
-                }
-            }
-            if ((!Contact_Found) && (Number_Of_Contacts < 600) && (PermitMetaData[i][12].indexOf(':') > 0)) {
-                String[] Contact = PermitMetaData[i][12].split(":");
-                if (!Contact[1].trim().contentEquals("")) {
-                    Contacts[Number_Of_Contacts] = PermitMetaData[i][12]; // Save Contact Info
-                    ContactByValue.getValues().add(PermitMetaData[i][12]);
-                    Number_Of_Contacts += 1;                              //Point to Next Slot
+        Set<String> Contacts = new LinkedHashSet<>();
+        for (PermitRecord Permit : Permits) {
+            if (Permit.getContact().indexOf(':') > 0) {
+                String[] Contact = Permit.getContact().split(":");
+                if (Contact.length > 1 && !Contact[1].trim().contentEquals("")) {
+                    Contacts.add(Permit.getContact()); // Save Contact Info
                 }
-
             }
         }
-        if (Number_Of_Contacts == 0) {
+        ContactByValue.getValues().addAll(Contacts);
+        if (Contacts.isEmpty()) {
             ContactByValue.getValues().add("");                // No Contacts Found
         }
 
@@ -0,0 +1,187 @@
+package amanda.edms;
+
+import com.opentext.livelink.service.core.Authentication;
+import com.opentext.livelink.service.core.Authentication_Service;
+import com.opentext.livelink.service.core.ContentService;
+import com.opentext.livelink.service.core.ContentService_Service;
+import com.opentext.livelink.service.docman.DocumentManagement;
+import com.opentext.livelink.service.docman.DocumentManagement_Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.soap.MTOMFeature;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Creates the JAX-WS services of OpenText once, thread-safe. The WSDLs are loaded from the classpath
+ * (wsdl.classpathDir, default wsdl/) when they are bundled with the adaptor, so no WSDL is fetched from Content
+ * Server, and the ports are pointed at the endpoints of server.auth, server.doc and server.content. Without a
+ * bundled copy the WSDL is read from the server URL as before. With services.eagerWarmUp the services are created
+ * in the background when the registry is first used.
+ */
+public class OTServiceRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTServiceRegistry.class);
+
+    private static final OTServiceRegistry INSTANCE = new OTServiceRegistry();
+
+    private volatile DocumentManagement_Service documentManagementService;
+
+    private volatile ContentService_Service contentService;
+
+    private volatile Authentication_Service authenticationService;
+
+    private volatile long documentManagementInitMillis;
+
+    private volatile long contentServiceInitMillis;
+
+    private volatile long authenticationInitMillis;
+
+    private OTServiceRegistry() {
+        // The keep-alive settings must be in place before the first connection
+        OTTransport.getInstance();
+        if (EdmsProperties.isServicesEagerWarmUp()) {
+            Thread warmUpThread = new Thread(this::warmUpQuietly, "edms-service-warm-up");
+            warmUpThread.setDaemon(true);
+            warmUpThread.start();
+        }
+    }
+
+    public static OTServiceRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the three services now instead of on first use
+     *
+     * @return the time taken in milliseconds
+     */
+    public long warmUp() throws MalformedURLException {
+        long startTime = System.currentTimeMillis();
+        getDocumentManagementService();
+        getContentService();
+        getAuthenticationService();
+        long elapsed = System.currentTimeMillis() - startTime;
+        LOGGER.info("EDMS:: Services warmed up in {} ms (DocumentManagement {} ms, ContentService {} ms, Authentication {} ms)",
+                elapsed, documentManagementInitMillis, contentServiceInitMillis, authenticationInitMillis);
+        return elapsed;
+    }
+
+    public DocumentManagement createDocumentManagementPort() throws MalformedURLException {
+        DocumentManagement port = getDocumentManagementService().getBasicHttpBindingDocumentManagement();
+        configurePort(port, EdmsProperties.getServerDocumentURL());
+        return port;
+    }
+
+    /**
+     * NOTE: ContentService is the only service that requires MTOM support
+     */
+    public ContentService createContentServicePort() throws MalformedURLException {
+        ContentService port = getContentService().getBasicHttpBindingContentService(new MTOMFeature());
+        configurePort(port, EdmsProperties.getServerContentURL());
+        return port;
+    }
+
+    public Authentication createAuthenticationPort() throws MalformedURLException {
+        Authentication port = getAuthenticationService().getBasicHttpBindingAuthentication();
+        configurePort(port, EdmsProperties.getServerAuthURL());
+        return port;
+    }
+
+    /**
+     * @return the time taken to create the service, 0 while it isn't created
+     */
+    public long getDocumentManagementInitMillis() {
+        return documentManagementInitMillis;
+    }
+
+    public long getContentServiceInitMillis() {
+        return contentServiceInitMillis;
+    }
+
+    public long getAuthenticationInitMillis() {
+        return authenticationInitMillis;
+    }
+
+    private DocumentManagement_Service getDocumentManagementService() throws MalformedURLException {
+        DocumentManagement_Service service = documentManagementService;
+        if (service == null) {
+            synchronized (this) {
+                service = documentManagementService;
+                if (service == null) {
+                    long startTime = System.currentTimeMillis();
+                    service = new DocumentManagement_Service(getWsdlLocation("DocumentManagement.wsdl", EdmsProperties.getServerDocumentURL()));
+                    documentManagementInitMillis = System.currentTimeMillis() - startTime;
+                    LOGGER.info("EDMS:: DocumentManagement service created in {} ms", documentManagementInitMillis);
+                    documentManagementService = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    private ContentService_Service getContentService() throws MalformedURLException {
+        ContentService_Service service = contentService;
+        if (service == null) {
+            synchronized (this) {
+                service = contentService;
+                if (service == null) {
+                    long startTime = System.currentTimeMillis();
+                    service = new ContentService_Service(getWsdlLocation("ContentService.wsdl", EdmsProperties.getServerContentURL()));
+                    contentServiceInitMillis = System.currentTimeMillis() - startTime;
+                    LOGGER.info("EDMS:: ContentService service created in {} ms", contentServiceInitMillis);
+                    contentService = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    private Authentication_Service getAuthenticationService() throws MalformedURLException {
+        Authentication_Service service = authenticationService;
+        if (service == null) {
+            synchronized (this) {
+                service = authenticationService;
+                if (service == null) {
+                    long startTime = System.currentTimeMillis();
+                    service = new Authentication_Service(getWsdlLocation("Authentication.wsdl", EdmsProperties.getServerAuthURL()));
+                    authenticationInitMillis = System.currentTimeMillis() - startTime;
+                    LOGGER.info("EDMS:: Authentication service created in {} ms", authenticationInitMillis);
+                    authenticationService = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    private static URL getWsdlLocation(String wsdlName, String serverUrl) throws MalformedURLException {
+        URL bundledWsdl = OTServiceRegistry.class.getClassLoader().getResource(EdmsProperties.getWsdlClasspathDir() + wsdlName);
+        if (bundledWsdl != null) {
+            LOGGER.debug("EDMS:: Using the bundled WSDL {}", bundledWsdl);
+            return bundledWsdl;
+        }
+        LOGGER.info("EDMS:: No bundled {}, reading the WSDL from {}", wsdlName, serverUrl);
+        return new URL(serverUrl);
+    }
+
+    /**
+     * Points the port at the configured server, the address of a bundled WSDL may be another server, and applies
+     * the transport settings
+     */
+    private static void configurePort(Object port, String serverUrl) {
+        int query = serverUrl.indexOf('?');
+        String endpoint = query < 0 ? serverUrl : serverUrl.substring(0, query);
+        ((BindingProvider) port).getRequestContext().put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, endpoint);
+        OTTransport.getInstance().configure(port);
+    }
+
+    private void warmUpQuietly() {
+        try {
+            warmUp();
+        } catch (Exception exp) {
+            LOGGER.error("Error while warming up the OpenText services", exp);
+        }
+    }
+}
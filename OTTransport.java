@@ -0,0 +1,239 @@
+package amanda.edms;
+
+import com.sun.xml.internal.ws.api.handler.MessageHandler;
+import com.sun.xml.internal.ws.api.handler.MessageHandlerContext;
+import com.sun.xml.internal.ws.developer.JAXWSProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.Handler;
+import javax.xml.ws.handler.MessageContext;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP transport settings of the OpenText ports. The ports use the keep-alive connection cache of the JDK. It caps
+ * the idle connections kept per endpoint, not the number of open connections. The cache is JVM-wide, so
+ * transport.keepAlive and transport.maxConnections are only set as the http.keepAlive and http.maxConnections
+ * system properties when they are configured. They then apply to every HTTP client of the JVM, and
+ * http.maxConnections only takes effect when no HTTP connection was cached before. Connect and read timeouts are set
+ * on every port, uploads use transport.uploadTimeoutSeconds as read timeout instead. Connections to an HTTPS endpoint
+ * are counted by a shared socket factory, a request that didn't open a connection reused one from the cache.
+ */
+public class OTTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTTransport.class);
+
+    private static final OTTransport INSTANCE = new OTTransport();
+
+    private final int connectTimeoutMillis;
+
+    private final int requestTimeoutMillis;
+
+    private final int uploadTimeoutMillis;
+
+    // Shared by all ports, the keep-alive cache only reuses HTTPS connections opened by the same factory
+    private final SSLSocketFactory socketFactory;
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong openedConnectionCount = new AtomicLong();
+
+    private OTTransport() {
+        this.connectTimeoutMillis = (int) EdmsProperties.getTransportConnectTimeoutMillis();
+        this.requestTimeoutMillis = (int) EdmsProperties.getTransportRequestTimeoutMillis();
+        this.uploadTimeoutMillis = (int) EdmsProperties.getTransportUploadTimeoutMillis();
+        this.socketFactory = new CountingSSLSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+        Boolean keepAlive = EdmsProperties.getTransportKeepAlive();
+        if (keepAlive != null) {
+            setSystemProperty("http.keepAlive", String.valueOf(keepAlive));
+        }
+        int maxConnections = EdmsProperties.getTransportMaxConnections();
+        if (maxConnections > 0) {
+            setSystemProperty("http.maxConnections", String.valueOf(maxConnections));
+            warnIfMaxConnectionsIgnored(maxConnections);
+        }
+        LOGGER.info("EDMS:: HTTP transport with keep-alive {}, max {} idle connections per endpoint, connect timeout {} ms, request timeout {} ms, upload timeout {} ms",
+                System.getProperty("http.keepAlive", "true"), System.getProperty("http.maxConnections", "5"),
+                connectTimeoutMillis, requestTimeoutMillis, uploadTimeoutMillis);
+    }
+
+    public static OTTransport getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies the timeouts, the socket factory and the request counter to a port
+     */
+    public void configure(Object port) {
+        BindingProvider bindingProvider = (BindingProvider) port;
+        Map<String, Object> requestContext = bindingProvider.getRequestContext();
+        requestContext.put(JAXWSProperties.CONNECT_TIMEOUT, connectTimeoutMillis);
+        requestContext.put(JAXWSProperties.REQUEST_TIMEOUT, requestTimeoutMillis);
+        requestContext.put(JAXWSProperties.SSL_SOCKET_FACTORY, socketFactory);
+
+        @SuppressWarnings("rawtypes")
+        List<Handler> handlerChain = new ArrayList<>(bindingProvider.getBinding().getHandlerChain());
+        handlerChain.add(new RequestCounter());
+        bindingProvider.getBinding().setHandlerChain(handlerChain);
+    }
+
+    /**
+     * Uses the read timeout of uploads on the port until {@link #resetTimeout} is called. The server may take long
+     * to store a large upload before it answers.
+     */
+    public void useUploadTimeout(Object port) {
+        ((BindingProvider) port).getRequestContext().put(JAXWSProperties.REQUEST_TIMEOUT, uploadTimeoutMillis);
+    }
+
+    public void resetTimeout(Object port) {
+        ((BindingProvider) port).getRequestContext().put(JAXWSProperties.REQUEST_TIMEOUT, requestTimeoutMillis);
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of HTTPS connections opened to OpenText
+     */
+    public long getOpenedConnectionCount() {
+        return openedConnectionCount.get();
+    }
+
+    /**
+     * @return the number of requests sent over a cached connection, only meaningful for HTTPS endpoints
+     */
+    public long getReusedConnectionCount() {
+        return Math.max(0L, requestCount.get() - openedConnectionCount.get());
+    }
+
+    /**
+     * Sets a JVM-wide HTTP property, a different value given on the command line wins
+     */
+    private static void setSystemProperty(String name, String value) {
+        String current = System.getProperty(name);
+        if (current == null) {
+            System.setProperty(name, value);
+        } else if (!current.equals(value)) {
+            LOGGER.warn("EDMS:: {} is {} for this JVM, the configured value {} is ignored", name, current, value);
+        }
+    }
+
+    /**
+     * The JDK reads http.maxConnections once, when the first connection is cached
+     */
+    private static void warnIfMaxConnectionsIgnored(int maxConnections) {
+        try {
+            Field result = Class.forName("sun.net.www.http.KeepAliveCache").getDeclaredField("result");
+            result.setAccessible(true);
+            int effective = result.getInt(null);
+            if (effective != -1 && effective != maxConnections) {
+                LOGGER.warn("EDMS:: HTTP connections were cached before the transport was configured, the JVM keeps {} idle connections per endpoint instead of {}",
+                        effective, maxConnections);
+            }
+        } catch (ReflectiveOperationException | RuntimeException exp) {
+            LOGGER.info("EDMS:: Unable to check the effective http.maxConnections, it only applies when no HTTP connection was cached before");
+        }
+    }
+
+    /**
+     * Counts the outbound messages without touching them, unlike a SOAPHandler it doesn't convert them to SAAJ
+     */
+    private final class RequestCounter implements MessageHandler<MessageHandlerContext> {
+
+        @Override
+        public Set<QName> getHeaders() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public boolean handleMessage(MessageHandlerContext context) {
+            if (Boolean.TRUE.equals(context.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY))) {
+                requestCount.incrementAndGet();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean handleFault(MessageHandlerContext context) {
+            return true;
+        }
+
+        @Override
+        public void close(MessageContext context) {
+        }
+    }
+
+    /**
+     * Counts every TLS connection once: a socket layered over an SSL socket of this factory isn't counted again
+     */
+    private final class CountingSSLSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+
+        private CountingSSLSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return opened(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            Socket layered = delegate.createSocket(socket, host, port, autoClose);
+            return socket instanceof SSLSocket ? layered : opened(layered);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return opened(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return opened(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return opened(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return opened(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private Socket opened(Socket socket) {
+            openedConnectionCount.incrementAndGet();
+            LOGGER.debug("EDMS:: Opened connection {} to OpenText", openedConnectionCount.get());
+            return socket;
+        }
+    }
+}
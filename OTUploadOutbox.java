@@ -0,0 +1,559 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable write-behind outbox for attachment uploads. {@link #enqueue} spools the content to the journal directory
+ * (outbox.dir), records the job in an append-only outbox log and returns. Background workers upload the jobs to
+ * OpenText and store the EDMS ID in AMANDA through outbox.writeBackSql. Failed jobs are retried after
+ * outbox.retryDelaySeconds, doubled after every failure up to outbox.maxRetryDelaySeconds. A job that failed
+ * outbox.maxAttempts times is given up: it gets a FAILED record and its content is moved to the failed directory
+ * of the journal for manual handling.
+ * <p>
+ * The outbox log has one record per state change:
+ * <pre>
+ * ENQ       jobId  AttachmentRSN  DocumentID  EnqueuedAt  Size  MimeType  FileName
+ * UPLOADED  jobId  EDMS ID
+ * DONE      jobId
+ * FAILED    jobId
+ * </pre>
+ * MimeType and FileName are escaped, a backslash, tab, carriage return or line feed is written as \\, \t, \r or
+ * \n.
+ * On start the log is replayed, jobs without a DONE or FAILED record are queued again and the log is compacted. Delivery is
+ * at least once: a job that may already have created its document in OpenText looks the document up by name
+ * before uploading, and a job that was uploaded but not written back only repeats the write back.
+ */
+public class OTUploadOutbox {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTUploadOutbox.class);
+
+    private static final String LOG_FILE = "outbox.log";
+
+    private static final String CONTENT_SUFFIX = ".content";
+
+    private static final String ENQUEUED = "ENQ";
+
+    private static final String UPLOADED = "UPLOADED";
+
+    private static final String DONE = "DONE";
+
+    private static final String FAILED = "FAILED";
+
+    private static final String FAILED_DIR = "failed";
+
+    private static OTUploadOutbox instance;
+
+    private final DataSource dataSource;
+
+    private final File journalDir;
+
+    private final String writeBackSql;
+
+    private final long retryDelayMillis;
+
+    private final long maxRetryDelayMillis;
+
+    private final int maxAttempts;
+
+    private final OTAuthTokenManager tokenManager;
+
+    private final ScheduledThreadPoolExecutor workers;
+
+    private final ConcurrentMap<String, OutboxJob> pendingJobs = new ConcurrentHashMap<>();
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+
+    private final AtomicLong completedCount = new AtomicLong();
+
+    private final AtomicLong failedAttemptCount = new AtomicLong();
+
+    private final AtomicLong failedJobCount = new AtomicLong();
+
+    private final AtomicLong totalLagMillis = new AtomicLong();
+
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    private FileOutputStream logStream;
+
+    private OTUploadOutbox(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.journalDir = new File(EdmsProperties.getOutboxDir());
+        this.writeBackSql = EdmsProperties.getOutboxWriteBackSql();
+        this.retryDelayMillis = EdmsProperties.getOutboxRetryDelayMillis();
+        this.maxRetryDelayMillis = Math.max(retryDelayMillis, EdmsProperties.getOutboxMaxRetryDelayMillis());
+        this.maxAttempts = EdmsProperties.getOutboxMaxAttempts();
+        this.tokenManager = OTAuthService.getTokenManager(EdmsProperties.getServerUsername(), EdmsProperties.getServerPassword());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ScheduledThreadPoolExecutor(EdmsProperties.getOutboxWorkers(), runnable -> {
+            Thread thread = new Thread(runnable, "edms-outbox-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the outbox, recovering the jobs left in the journal directory by a previous run
+     *
+     * @param dataSource AMANDA connections of the workers
+     */
+    public static synchronized OTUploadOutbox start(DataSource dataSource) throws IOException {
+        if (instance != null) {
+            return instance;
+        }
+        if (EdmsProperties.getOutboxWriteBackSql() == null) {
+            throw new RuntimeException("outbox.writeBackSql is required to start the upload outbox");
+        }
+        OTUploadOutbox outbox = new OTUploadOutbox(dataSource);
+        outbox.recover();
+        instance = outbox;
+        return instance;
+    }
+
+    public static synchronized OTUploadOutbox getInstance() {
+        if (instance == null) {
+            throw new RuntimeException("The upload outbox is not started");
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the workers, pending jobs stay in the journal and are recovered by the next start
+     */
+    public static synchronized void stop() {
+        if (instance == null) {
+            return;
+        }
+        instance.workers.shutdownNow();
+        synchronized (instance) {
+            try {
+                instance.logStream.close();
+            } catch (IOException exp) {
+                LOGGER.error("Error while closing the outbox log", exp);
+            }
+        }
+        instance = null;
+    }
+
+    /**
+     * Spools the content to the journal and queues its upload. The content stream is consumed and closed.
+     *
+     * @param documentId existing document to add a version to, null for a new document
+     * @return the job ID
+     */
+    public String enqueue(Integer attachmentRSN, OTFileContent fileContent, Long documentId) throws IOException {
+        if (fileContent.getFileName() == null) {
+            throw new RuntimeException("File name is required");
+        }
+        String jobId = UUID.randomUUID().toString();
+        File spoolFile = new File(journalDir, jobId + ".tmp");
+        File contentFile = new File(journalDir, jobId + CONTENT_SUFFIX);
+        long size = 0;
+        try (InputStream content = fileContent.getContent();
+             FileOutputStream out = new FileOutputStream(spoolFile)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                size += read;
+            }
+            out.getChannel().force(true);
+        } catch (IOException | RuntimeException exp) {
+            Files.deleteIfExists(spoolFile.toPath());
+            throw exp;
+        }
+        Files.move(spoolFile.toPath(), contentFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        OutboxJob job = new OutboxJob(jobId, attachmentRSN, documentId, System.currentTimeMillis(), size,
+                fileContent.getMimeType(), fileContent.getFileName());
+        appendLog(job.toLogRecord());
+        pendingJobs.put(jobId, job);
+        enqueuedCount.incrementAndGet();
+        LOGGER.debug("EDMS:: Queued upload job {} for AttachmentRSN {}, {} bytes", jobId, attachmentRSN, size);
+        workers.execute(() -> process(job));
+        return jobId;
+    }
+
+    /**
+     * @return the number of jobs not yet uploaded and written back
+     */
+    public int getQueueDepth() {
+        return pendingJobs.size();
+    }
+
+    /**
+     * @return the age of the oldest pending job, 0 when the queue is empty
+     */
+    public long getOldestPendingAgeMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (OutboxJob job : pendingJobs.values()) {
+            oldest = Math.min(oldest, job.enqueuedAt);
+        }
+        return oldest == Long.MAX_VALUE ? 0L : System.currentTimeMillis() - oldest;
+    }
+
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getFailedAttemptCount() {
+        return failedAttemptCount.get();
+    }
+
+    /**
+     * @return the number of jobs given up after outbox.maxAttempts attempts
+     */
+    public long getFailedJobCount() {
+        return failedJobCount.get();
+    }
+
+    /**
+     * @return the average time from enqueue to write back of the completed jobs
+     */
+    public long getAverageLagMillis() {
+        long completed = completedCount.get();
+        return completed == 0 ? 0L : totalLagMillis.get() / completed;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    private void process(OutboxJob job) {
+        try {
+            if (job.edmsId == null) {
+                job.edmsId = upload(job);
+                appendLog(UPLOADED + "\t" + job.jobId + "\t" + job.edmsId);
+            }
+            writeBack(job);
+            appendLog(DONE + "\t" + job.jobId);
+        } catch (Exception exp) {
+            failedAttemptCount.incrementAndGet();
+            job.attempts++;
+            if (job.attempts >= maxAttempts) {
+                LOGGER.error("EDMS:: Upload job {} for AttachmentRSN {} failed {} times, giving up",
+                        job.jobId, job.attachmentRSN, job.attempts, exp);
+                giveUp(job);
+                return;
+            }
+            long delay = retryDelay(job.attempts);
+            LOGGER.error("EDMS:: Upload job {} for AttachmentRSN {} failed (attempt {}), retrying in {} ms",
+                    job.jobId, job.attachmentRSN, job.attempts, delay, exp);
+            if (!workers.isShutdown()) {
+                workers.schedule(() -> process(job), delay, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        pendingJobs.remove(job.jobId);
+        deleteContent(job.jobId);
+        long lag = System.currentTimeMillis() - job.enqueuedAt;
+        completedCount.incrementAndGet();
+        totalLagMillis.addAndGet(lag);
+        maxLagMillis.accumulateAndGet(lag, Math::max);
+        LOGGER.info("EDMS:: Upload job {} for AttachmentRSN {} stored as EDMS ID {}, lag {} ms",
+                job.jobId, job.attachmentRSN, job.edmsId, lag);
+    }
+
+    /**
+     * @return outbox.retryDelaySeconds doubled for every failed attempt after the first, at most outbox.maxRetryDelaySeconds
+     */
+    private long retryDelay(int attempts) {
+        int doublings = Math.min(attempts - 1, 30);
+        return Math.min(maxRetryDelayMillis, retryDelayMillis << doublings);
+    }
+
+    /**
+     * Drops a job from the queue and keeps its content in the failed directory
+     */
+    private void giveUp(OutboxJob job) {
+        try {
+            appendLog(FAILED + "\t" + job.jobId);
+        } catch (IOException exp) {
+            // The job is recovered and retried by the next start
+            LOGGER.error("Error while writing the outbox log", exp);
+        }
+        pendingJobs.remove(job.jobId);
+        failedJobCount.incrementAndGet();
+        File failedDir = new File(journalDir, FAILED_DIR);
+        try {
+            if (!failedDir.isDirectory() && !failedDir.mkdirs()) {
+                throw new IOException("Unable to create " + failedDir);
+            }
+            Files.move(job.getContentFile().toPath(), new File(failedDir, job.jobId + CONTENT_SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.error("EDMS:: Content of failed upload job {} for AttachmentRSN {} ({}) kept in {}",
+                    job.jobId, job.attachmentRSN, job.fileName, failedDir);
+        } catch (IOException exp) {
+            LOGGER.error("Error while moving the content of failed upload job {}", job.jobId, exp);
+            deleteContent(job.jobId);
+        }
+    }
+
+    private String upload(OutboxJob job) throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            return tokenManager.callWithAuthRetry(authToken -> {
+                OTPutAttachmentService putService = new OTPutAttachmentService(connection, authToken);
+                AttachmentContext attachmentContext = putService.resolveAttachmentContext(job.attachmentRSN);
+                OTFileContent fileContent = job.openContent();
+                try {
+                    if (job.documentId == null && job.mayBeUploaded) {
+                        Long existingId = putService.findUploadedDocument(attachmentContext, fileContent);
+                        if (existingId != null) {
+                            LOGGER.info("EDMS:: Upload job {} was already uploaded as node {}", job.jobId, existingId);
+                            return String.valueOf(existingId);
+                        }
+                    }
+                    // From here on the document may exist in OpenText even if the upload fails
+                    job.mayBeUploaded = true;
+                    return putService.putAttachment(attachmentContext, job.documentId, fileContent);
+                } finally {
+                    fileContent.getContent().close();
+                }
+            });
+        }
+    }
+
+    private void writeBack(OutboxJob job) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            PreparedStatement ps = null;
+            try {
+                ps = connection.prepareStatement(writeBackSql);
+                ps.setString(1, job.edmsId);
+                ps.setInt(2, job.attachmentRSN);
+                if (ps.executeUpdate() == 0) {
+                    LOGGER.warn("EDMS:: No AMANDA attachment updated with EDMS ID {} for AttachmentRSN {}", job.edmsId, job.attachmentRSN);
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            } finally {
+                if (ps != null) {
+                    try {
+                        ps.close();
+                    } catch (Exception exp) {
+                        LOGGER.error("Error while closing prepared statement", exp);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays the outbox log, rewrites it with the pending jobs only and queues them
+     */
+    private void recover() throws IOException {
+        if (!journalDir.isDirectory() && !journalDir.mkdirs()) {
+            throw new IOException("Unable to create the outbox directory " + journalDir);
+        }
+        File logFile = new File(journalDir, LOG_FILE);
+        Map<String, OutboxJob> jobs = new LinkedHashMap<>();
+        if (logFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replay(line, jobs);
+                }
+            }
+        }
+
+        // Compact the log: only the records of the pending jobs are kept
+        File compactedFile = new File(journalDir, LOG_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(compactedFile)) {
+            for (OutboxJob job : jobs.values()) {
+                StringBuilder records = new StringBuilder(job.toLogRecord());
+                if (job.edmsId != null) {
+                    records.append(UPLOADED).append('\t').append(job.jobId).append('\t').append(job.edmsId).append('\n');
+                }
+                out.write(records.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            out.getChannel().force(true);
+        }
+        Files.move(compactedFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logStream = new FileOutputStream(logFile, true);
+
+        // Spool files of completed jobs and of enqueues interrupted before their log record
+        File[] files = journalDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(LOG_FILE) || file.isDirectory()) {
+                    continue;
+                }
+                int suffix = name.indexOf('.');
+                if (suffix < 0 || !jobs.containsKey(name.substring(0, suffix)) || !name.endsWith(CONTENT_SUFFIX)) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+
+        if (!jobs.isEmpty()) {
+            LOGGER.info("EDMS:: Recovered {} pending upload jobs from {}", jobs.size(), journalDir);
+        }
+        for (OutboxJob job : jobs.values()) {
+            // The previous run may have created the document before it stopped
+            job.mayBeUploaded = true;
+            pendingJobs.put(job.jobId, job);
+            workers.execute(() -> process(job));
+        }
+    }
+
+    private void replay(String line, Map<String, OutboxJob> jobs) {
+        String[] fields = line.split("\t", 8);
+        try {
+            if (ENQUEUED.equals(fields[0]) && fields.length == 8) {
+                OutboxJob job = new OutboxJob(fields[1], Integer.valueOf(fields[2]), fields[3].isEmpty() ? null : Long.valueOf(fields[3]),
+                        Long.parseLong(fields[4]), Long.parseLong(fields[5]), fields[6].isEmpty() ? null : unescape(fields[6]), unescape(fields[7]));
+                if (job.getContentFile().exists()) {
+                    jobs.put(job.jobId, job);
+                } else {
+                    LOGGER.error("EDMS:: Content of upload job {} for AttachmentRSN {} is missing, dropping the job", job.jobId, job.attachmentRSN);
+                }
+            } else if (UPLOADED.equals(fields[0]) && fields.length == 3 && jobs.containsKey(fields[1])) {
+                jobs.get(fields[1]).edmsId = fields[2];
+            } else if ((DONE.equals(fields[0]) || FAILED.equals(fields[0])) && fields.length == 2) {
+                jobs.remove(fields[1]);
+            } else {
+                LOGGER.warn("EDMS:: Ignoring invalid outbox log record: {}", line);
+            }
+        } catch (NumberFormatException exp) {
+            // A record torn by a crash, the job is either recovered from its ENQ record or was never acknowledged
+            LOGGER.warn("EDMS:: Ignoring invalid outbox log record: {}", line);
+        }
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int index = 0; index < value.length(); index++) {
+            char c = value.charAt(index);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int index = 0; index < value.length(); index++) {
+            char c = value.charAt(index);
+            if (c == '\\' && index + 1 < value.length()) {
+                char next = value.charAt(++index);
+                unescaped.append(next == 't' ? '\t' : next == 'r' ? '\r' : next == 'n' ? '\n' : next);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    private synchronized void appendLog(String record) throws IOException {
+        logStream.write((record.endsWith("\n") ? record : record + "\n").getBytes(StandardCharsets.UTF_8));
+        logStream.getChannel().force(false);
+    }
+
+    private void deleteContent(String jobId) {
+        try {
+            Files.deleteIfExists(new File(journalDir, jobId + CONTENT_SUFFIX).toPath());
+        } catch (IOException exp) {
+            // Removed by the next start
+            LOGGER.error("Error while deleting the spooled content of upload job {}", jobId, exp);
+        }
+    }
+
+    private final class OutboxJob {
+
+        private final String jobId;
+
+        private final Integer attachmentRSN;
+
+        private final Long documentId;
+
+        private final long enqueuedAt;
+
+        private final long size;
+
+        private final String mimeType;
+
+        private final String fileName;
+
+        private volatile String edmsId;
+
+        private volatile boolean mayBeUploaded;
+
+        private volatile int attempts;
+
+        private OutboxJob(String jobId, Integer attachmentRSN, Long documentId, long enqueuedAt, long size, String mimeType, String fileName) {
+            this.jobId = jobId;
+            this.attachmentRSN = attachmentRSN;
+            this.documentId = documentId;
+            this.enqueuedAt = enqueuedAt;
+            this.size = size;
+            this.mimeType = mimeType;
+            this.fileName = fileName;
+        }
+
+        private File getContentFile() {
+            return new File(journalDir, jobId + CONTENT_SUFFIX);
+        }
+
+        private OTFileContent openContent() throws IOException {
+            OTFileContent fileContent = new OTFileContent();
+            fileContent.setFileName(fileName);
+            fileContent.setMimeType(mimeType);
+            fileContent.setSize(size);
+            fileContent.setFilePath(getContentFile().getPath());
+            fileContent.setContent(new FileInputStream(getContentFile()));
+            return fileContent;
+        }
+
+        private String toLogRecord() {
+            // Escaped so the job is recovered with the exact name, it is looked up by name in OpenText
+            return ENQUEUED + "\t" + jobId + "\t" + attachmentRSN + "\t" + (documentId != null ? documentId : "") + "\t"
+                    + enqueuedAt + "\t" + size + "\t" + (mimeType != null ? escape(mimeType) : "") + "\t"
+                    + escape(fileName) + "\n";
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package amanda.edms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses the chunk size of the chunked transfer encoding used to upload content. upload.chunkSize fixes the chunk
+ * size, otherwise it grows with the file size between upload.minChunkSize and upload.maxChunkSize. With
+ * upload.autoTune the chunk size of each file size class is adjusted from the observed throughput: now and then an
+ * upload tries half or double the current chunk size, and the faster one is kept.
+ */
+public class OTUploadTuning {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTUploadTuning.class);
+
+    private static final OTUploadTuning INSTANCE = new OTUploadTuning();
+
+    // Smaller uploads are dominated by latency and say nothing about the chunk size
+    private static final long MIN_TUNING_SIZE = 1L << 20;
+
+    // Upper bounds of the file size classes above MIN_TUNING_SIZE: 4 MB, 16 MB, 256 MB and larger
+    private static final long[] SIZE_CLASSES = {1L << 22, 1L << 24, 1L << 28, Long.MAX_VALUE};
+
+    // Uploads measured with a candidate chunk size before it can replace the current one
+    private static final int MIN_SAMPLES = 3;
+
+    // One upload in EXPLORE_INTERVAL of a size class tries another chunk size
+    private static final int EXPLORE_INTERVAL = 8;
+
+    // Weight of the last upload in the throughput average
+    private static final double SMOOTHING = 0.3;
+
+    private final int fixedChunkSize;
+
+    private final int minChunkSize;
+
+    private final int maxChunkSize;
+
+    private final boolean autoTune;
+
+    private final SizeClass[] sizeClasses = new SizeClass[SIZE_CLASSES.length];
+
+    private OTUploadTuning() {
+        this.fixedChunkSize = EdmsProperties.getUploadChunkSize();
+        this.minChunkSize = EdmsProperties.getUploadMinChunkSize();
+        this.maxChunkSize = Math.max(minChunkSize, EdmsProperties.getUploadMaxChunkSize());
+        this.autoTune = fixedChunkSize <= 0 && EdmsProperties.isUploadAutoTune();
+        for (int index = 0; index < sizeClasses.length; index++) {
+            sizeClasses[index] = new SizeClass(index);
+        }
+    }
+
+    public static OTUploadTuning getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param fileSize size of the upload in bytes
+     * @return the chunk size for the upload
+     */
+    public int getChunkSize(long fileSize) {
+        if (fixedChunkSize > 0) {
+            return fixedChunkSize;
+        }
+        if (autoTune && fileSize >= MIN_TUNING_SIZE) {
+            return sizeClass(fileSize).nextChunkSize();
+        }
+        return adaptiveChunkSize(fileSize);
+    }
+
+    /**
+     * Records the throughput of an upload for the auto-tuning
+     */
+    public void record(long fileSize, int chunkSize, long elapsedMillis) {
+        if (!autoTune || fileSize < MIN_TUNING_SIZE) {
+            return;
+        }
+        sizeClass(fileSize).record(chunkSize, (double) fileSize / Math.max(1L, elapsedMillis));
+    }
+
+    /**
+     * @return the chunk size currently used for uploads of the given size
+     */
+    public int getCurrentChunkSize(long fileSize) {
+        if (fixedChunkSize > 0) {
+            return fixedChunkSize;
+        }
+        return autoTune && fileSize >= MIN_TUNING_SIZE ? sizeClass(fileSize).getCurrentChunkSize() : adaptiveChunkSize(fileSize);
+    }
+
+    /**
+     * About 1/64 of the file rounded down to a power of two, within the configured bounds
+     */
+    private int adaptiveChunkSize(long fileSize) {
+        long target = Math.max(1L, fileSize / 64L);
+        long chunkSize = Long.highestOneBit(target);
+        return (int) Math.max(minChunkSize, Math.min(maxChunkSize, chunkSize));
+    }
+
+    private SizeClass sizeClass(long fileSize) {
+        int index = 0;
+        while (fileSize > SIZE_CLASSES[index]) {
+            index++;
+        }
+        return sizeClasses[index];
+    }
+
+    private final class SizeClass {
+
+        private final int index;
+
+        private final Map<Integer, Throughput> throughputByChunkSize = new HashMap<>();
+
+        private int currentChunkSize;
+
+        private int uploadCount;
+
+        private boolean exploreLarger = true;
+
+        private SizeClass(int index) {
+            this.index = index;
+            // Start from the adaptive choice for the middle of the class
+            long lowerBound = index == 0 ? MIN_TUNING_SIZE : SIZE_CLASSES[index - 1];
+            this.currentChunkSize = adaptiveChunkSize(index == SIZE_CLASSES.length - 1 ? lowerBound * 4 : (lowerBound + SIZE_CLASSES[index]) / 2);
+        }
+
+        private synchronized int nextChunkSize() {
+            uploadCount++;
+            if (uploadCount % EXPLORE_INTERVAL != 0) {
+                return currentChunkSize;
+            }
+            exploreLarger = !exploreLarger;
+            int candidate = exploreLarger ? currentChunkSize * 2 : currentChunkSize / 2;
+            if (candidate < minChunkSize || candidate > maxChunkSize) {
+                return currentChunkSize;
+            }
+            return candidate;
+        }
+
+        private synchronized void record(int chunkSize, double bytesPerMilli) {
+            Throughput throughput = throughputByChunkSize.computeIfAbsent(chunkSize, key -> new Throughput());
+            throughput.add(bytesPerMilli);
+            Throughput current = throughputByChunkSize.get(currentChunkSize);
+            // A single fast upload isn't enough to switch, the candidate needs MIN_SAMPLES uploads
+            if (chunkSize != currentChunkSize && current != null && throughput.samples >= MIN_SAMPLES
+                    && throughput.average > current.average * 1.05) {
+                LOGGER.info("EDMS:: Upload chunk size of size class {} changed from {} to {} bytes", index, currentChunkSize, chunkSize);
+                currentChunkSize = chunkSize;
+            }
+        }
+
+        private synchronized int getCurrentChunkSize() {
+            return currentChunkSize;
+        }
+    }
+
+    /**
+     * Smoothed throughput of one chunk size, guarded by its size class
+     */
+    private static final class Throughput {
+
+        private double average;
+
+        private int samples;
+
+        private void add(double bytesPerMilli) {
+            average = samples == 0 ? bytesPerMilli : average + SMOOTHING * (bytesPerMilli - average);
+            samples++;
+        }
+    }
+}
@@ -3,7 +3,12 @@ package amanda.edms;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.Connection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The main class which will be used by Groovy script to perform all the operations
@@ -12,20 +17,25 @@ public class OpenTextClient {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OpenTextClient.class);
 
-    private String username;
-
-    private String password;
+    private final OTAuthTokenManager tokenManager;
 
     public OpenTextClient() {
-        this.username = EdmsProperties.getServerUsername();
-        this.password = EdmsProperties.getServerPassword();
+        // Starts the warm-up of the services when services.eagerWarmUp is enabled
+        OTServiceRegistry.getInstance();
+        this.tokenManager = OTAuthService.getTokenManager(EdmsProperties.getServerUsername(), EdmsProperties.getServerPassword());
     }
 
     public OTFileContent getAttachment(String documentId) throws Exception {
+        return getAttachment(documentId, !EdmsProperties.isDownloadStreaming());
+    }
+
+    /**
+     * @param reReadable false to stream the content straight from OpenText, it can then be read only once
+     */
+    public OTFileContent getAttachment(String documentId, boolean reReadable) throws Exception {
         long startTime = System.currentTimeMillis();
         try {
-            String authToken = OTAuthService.authenticate(username, password);
-            return OTGetAttachmentService.getContent(authToken, Long.valueOf(documentId));
+            return tokenManager.callWithAuthRetry(authToken -> OTGetAttachmentService.getContent(authToken, Long.valueOf(documentId), reReadable));
         } finally {
             long endTime = System.currentTimeMillis();
             LOGGER.info("EDMS:: Time taken to complete get attachment: {}", (endTime - startTime));
@@ -33,20 +43,114 @@ public class OpenTextClient {
     }
 
     /**
-     * When documentId is not empty then the existing document needs to be updated
+     * When documentId is not empty then the existing document needs to be updated. Content without a size or
+     * file path is spooled first, see {@link OTContentSpool}. With dedup.enabled an update with unchanged content
+     * is skipped and returns the documentId.
      */
     public String putAttachment(Connection connection, Integer attachmentRSN, OTFileContent fileContent, Long documentId) throws Exception {
         long startTime = System.currentTimeMillis();
+        OTContentSpool spool = null;
         try {
-            String authToken = OTAuthService.authenticate(username, password);
-            return new OTPutAttachmentService(connection, authToken).putAttachment(attachmentRSN, documentId, fileContent);
+            // A new version of a document is spooled too when its hash is needed to skip an unchanged upload
+            boolean hashBeforeUpload = EdmsProperties.isDedupEnabled() && documentId != null && fileContent.getContentHash() == null;
+            if (fileContent.getFilePath() == null && (fileContent.getSize() == null || hashBeforeUpload)) {
+                spool = OTContentSpool.spool(fileContent.getContent());
+            }
+            OTContentSpool contentSpool = spool;
+            return tokenManager.callWithAuthRetry(authToken -> {
+                // Every attempt reads the spooled copy from the start
+                OTFileContent uploadContent = contentSpool != null ? contentSpool.open(fileContent) : fileContent;
+                try {
+                    return new OTPutAttachmentService(connection, authToken).putAttachment(attachmentRSN, documentId, uploadContent);
+                } finally {
+                    if (contentSpool != null) {
+                        closeQuietly(uploadContent);
+                    }
+                }
+            });
         } finally {
+            if (spool != null) {
+                spool.close();
+            }
             long endTime = System.currentTimeMillis();
             LOGGER.info("EDMS:: Time taken to complete put attachment: {}", (endTime - startTime));
         }
     }
 
+    public CompletableFuture<OTFileContent> getAttachmentAsync(String documentId) {
+        return getAttachmentAsync(documentId, EdmsProperties.getAsyncTimeoutMillis());
+    }
+
+    /**
+     * Downloads the attachment without blocking the caller. When the future is cancelled or times out the download
+     * stream is closed, which aborts the transfer in flight, see {@link OTAbortHandle}. Content that was already
+     * downloaded is released.
+     *
+     * @param timeoutMillis 0 for no timeout
+     */
+    public CompletableFuture<OTFileContent> getAttachmentAsync(String documentId, long timeoutMillis) {
+        return OTAsyncExecutor.getInstance().submit(() -> getAttachment(documentId), timeoutMillis, null, OpenTextClient::closeQuietly);
+    }
+
+    public CompletableFuture<String> putAttachmentAsync(Connection connection, Integer attachmentRSN, OTFileContent fileContent, Long documentId) {
+        return putAttachmentAsync(connection, attachmentRSN, fileContent, documentId, EdmsProperties.getAsyncTimeoutMillis());
+    }
+
+    /**
+     * Uploads the attachment without blocking the caller. Cancelling the future or a timeout closes the content
+     * stream, which stops the spooling, and the stream being uploaded, which aborts the upload in flight. The
+     * uploaded stream is the spooled copy when the content is spooled, see {@link OTAbortHandle}.
+     *
+     * @param timeoutMillis 0 for no timeout
+     */
+    public CompletableFuture<String> putAttachmentAsync(Connection connection, Integer attachmentRSN, OTFileContent fileContent, Long documentId, long timeoutMillis) {
+        return OTAsyncExecutor.getInstance().submit(() -> putAttachment(connection, attachmentRSN, fileContent, documentId),
+                timeoutMillis, () -> closeQuietly(fileContent), null);
+    }
+
+    /**
+     * Uploads several attachments in parallel on the async executor. The AMANDA queries of the uploads are
+     * serialized on the shared connection, the OpenText calls run concurrently.
+     *
+     * @return the EDMS ID futures keyed by attachment RSN, in the order of the given uploads
+     */
+    public Map<Integer, CompletableFuture<String>> putAttachments(Connection connection, List<AttachmentUpload> uploads) {
+        Map<Integer, CompletableFuture<String>> results = new LinkedHashMap<>();
+        for (AttachmentUpload upload : uploads) {
+            results.put(upload.getAttachmentRSN(),
+                    putAttachmentAsync(connection, upload.getAttachmentRSN(), upload.getFileContent(), upload.getDocumentId()));
+        }
+        return results;
+    }
+
+    /**
+     * Queues the upload in the write-behind outbox and returns as soon as the content is spooled. The EDMS ID is
+     * written back to the AMANDA attachment by the outbox workers, see {@link OTUploadOutbox}.
+     *
+     * @return the outbox job ID
+     */
+    public String enqueueAttachment(Integer attachmentRSN, OTFileContent fileContent, Long documentId) throws IOException {
+        return OTUploadOutbox.getInstance().enqueue(attachmentRSN, fileContent, documentId);
+    }
+
     public void deleteAttachment(String documentId) {
         //TODO need to handle the delete attachment
     }
+
+    /**
+     * Auth token cache statistics, used to verify that we don't log in once per document
+     */
+    public OTAuthTokenManager getTokenManager() {
+        return tokenManager;
+    }
+
+    private static void closeQuietly(OTFileContent fileContent) {
+        if (fileContent.getContent() != null) {
+            try {
+                fileContent.getContent().close();
+            } catch (IOException exp) {
+                LOGGER.error("Error while closing attachment content", exp);
+            }
+        }
+    }
 }
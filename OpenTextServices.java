@@ -1,28 +1,19 @@
 package amanda.edms;
 
-import com.opentext.ecm.api.OTAuthentication;
+import amanda.edms.OTPortPool.PooledPort;
 import com.opentext.livelink.service.core.Authentication;
-import com.opentext.livelink.service.core.Authentication_Service;
 import com.opentext.livelink.service.core.ContentService;
-import com.opentext.livelink.service.core.ContentService_Service;
 import com.opentext.livelink.service.core.FileAtts;
 import com.opentext.livelink.service.core.StringValue;
 import com.opentext.livelink.service.docman.AttributeGroup;
 import com.opentext.livelink.service.docman.DocumentManagement;
-import com.opentext.livelink.service.docman.DocumentManagement_Service;
 import com.sun.xml.internal.ws.api.message.Header;
-import com.sun.xml.internal.ws.api.message.Headers;
+import com.sun.xml.internal.ws.developer.JAXWSProperties;
 import com.sun.xml.internal.ws.developer.WSBindingProvider;
 
-import javax.xml.namespace.QName;
-import javax.xml.soap.MessageFactory;
-import javax.xml.soap.SOAPElement;
 import javax.xml.soap.SOAPException;
-import javax.xml.soap.SOAPHeader;
-import javax.xml.soap.SOAPHeaderElement;
-import javax.xml.ws.soap.MTOMFeature;
+import javax.xml.ws.BindingProvider;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -31,123 +22,86 @@ import java.util.List;
  */
 public class OpenTextServices {
 
-    // Namespaces for the SOAP headers
-    private static final String CORE_NAMESPACE = "urn:Core.service.livelink.opentext.com";
+    private static final OTPortPool<DocumentManagement> DOC_SERVICE_POOL =
+            new OTPortPool<>("DocumentManagement", OpenTextServices::createDocService, OTHeaderFactory::evictAuthHeader);
 
-    // We need to manually set the SOAP header to include the authentication token
-    // The namespace of the OTAuthentication object
-    private static final String ECM_API_NAMESPACE = "urn:api.ecm.opentext.com";
-
-    private static ContentService_Service contentService_service;
-
-    private static DocumentManagement_Service documentManagement_service;
-
-    private static Authentication_Service authentication_service;
+    private static final OTPortPool<ContentService> CONTENT_SERVICE_POOL =
+            new OTPortPool<>("ContentService", OpenTextServices::createContentService, OTHeaderFactory::evictAuthHeader);
 
     private OpenTextServices() {
         throw new Error("Contains only static methods");
     }
 
-    public static DocumentManagement getDocService(String authToken) throws SOAPException, MalformedURLException {
-        if (documentManagement_service == null) {
-            URL url = new URL(EdmsProperties.getServerDocumentURL());
-            documentManagement_service = new DocumentManagement_Service(url);
-        }
-        DocumentManagement docManClient = documentManagement_service.getBasicHttpBindingDocumentManagement();
-
-        // Create the OTAuthentication object and set the authentication token
-        OTAuthentication otAuth = new OTAuthentication();
-        otAuth.setAuthenticationToken(authToken);
-
-        {
-            // Create a SOAP header
-            SOAPHeader header = MessageFactory.newInstance().createMessage().getSOAPPart().getEnvelope().getHeader();
-
-            // Add the OTAuthentication SOAP header element
-            SOAPHeaderElement otAuthElement = header.addHeaderElement(new QName(ECM_API_NAMESPACE, "OTAuthentication"));
-
-            // Add the AuthenticationToken SOAP element
-            SOAPElement authTokenElement = otAuthElement.addChildElement(new QName(ECM_API_NAMESPACE, "AuthenticationToken"));
-            authTokenElement.addTextNode(otAuth.getAuthenticationToken());
-
-            // Set the SOAP header on the docManClient
-            ((WSBindingProvider) docManClient).setOutboundHeaders(Headers.create(otAuthElement));
-        }
-        return docManClient;
+    /**
+     * Borrows a DocumentManagement client with the authentication header already set. Close the returned port
+     * to give it back to the pool.
+     */
+    public static PooledPort<DocumentManagement> borrowDocService(String authToken) throws SOAPException, MalformedURLException {
+        return DOC_SERVICE_POOL.borrow(authToken);
     }
 
-    public static ContentService getContentService(String authToken, String contentId, FileAtts fileAtts) throws SOAPException, MalformedURLException {
-        // Create the ContentService client
-        // NOTE: ContentService is the only service that requires MTOM support
-        if (contentService_service == null) {
-            URL url = new URL(EdmsProperties.getServerContentURL());
-            contentService_service = new ContentService_Service(url);
-        }
-        ContentService contentServiceClient = contentService_service.getBasicHttpBindingContentService(new MTOMFeature());
-
-        // Create the OTAuthentication object and set the authentication token
-        OTAuthentication otAuth = new OTAuthentication();
-        otAuth.setAuthenticationToken(authToken);
-
-        {
-            // Create a SOAP header
-            SOAPHeader header = MessageFactory.newInstance().createMessage().getSOAPPart().getEnvelope().getHeader();
-
-            // Add the OTAuthentication SOAP header element
-            SOAPHeaderElement otAuthElement = header.addHeaderElement(new QName(ECM_API_NAMESPACE, "OTAuthentication"));
-
-            // Add the AuthenticationToken
-            SOAPElement authTokenElement = otAuthElement.addChildElement(new QName(ECM_API_NAMESPACE, "AuthenticationToken"));
-            authTokenElement.addTextNode(otAuth.getAuthenticationToken());
-
-            // Add the ContextID SOAP header element
-            SOAPHeaderElement contextIDElement = header.addHeaderElement(new QName(CORE_NAMESPACE, "contextID"));
-            contextIDElement.addTextNode(contentId);
+    /**
+     * Borrows a ContentService client and sets the contextID and fileAtts headers for this call. Close the
+     * returned port to give it back to the pool.
+     */
+    public static PooledPort<ContentService> borrowContentService(String authToken, String contentId, FileAtts fileAtts) throws SOAPException, MalformedURLException {
+        PooledPort<ContentService> contentPort = CONTENT_SERVICE_POOL.borrow(authToken);
+        try {
+            ContentService contentServiceClient = contentPort.get();
+            ((BindingProvider) contentServiceClient).getRequestContext().remove(JAXWSProperties.HTTP_CLIENT_STREAMING_CHUNK_SIZE);
+            OTTransport.getInstance().resetTimeout(contentServiceClient);
 
             // Set the headers on the binding provider
-            List<Header> headers = new ArrayList<Header>();
-            headers.add(Headers.create(otAuthElement));
-            headers.add(Headers.create(contextIDElement));
+            List<Header> headers = new ArrayList<Header>(3);
+            headers.add(OTHeaderFactory.getAuthHeader(authToken));
+            headers.add(OTHeaderFactory.createContextIdHeader(contentId));
             if (fileAtts != null) {
-                // Add the FileAtts SOAP header element
-                SOAPHeaderElement fileAttsElement = header.addHeaderElement(new QName(OpenTextServices.CORE_NAMESPACE, "fileAtts"));
+                headers.add(OTHeaderFactory.createFileAttsHeader(fileAtts));
+            }
+            ((WSBindingProvider) contentServiceClient).setOutboundHeaders(headers);
+            return contentPort;
+        } catch (RuntimeException exp) {
+            contentPort.close();
+            throw exp;
+        }
+    }
+
+    /**
+     * Drops the pooled ports of a token that OpenText no longer accepts
+     */
+    public static void evictPorts(String authToken) {
+        DOC_SERVICE_POOL.evict(authToken);
+        CONTENT_SERVICE_POOL.evict(authToken);
+    }
 
-                // Add the CreatedDate element
-                SOAPElement createdDateElement = fileAttsElement.addChildElement(new QName(OpenTextServices.CORE_NAMESPACE, "CreatedDate"));
-                createdDateElement.addTextNode(fileAtts.getCreatedDate().toString());
+    public static OTPortPool<DocumentManagement> getDocServicePool() {
+        return DOC_SERVICE_POOL;
+    }
 
-                // Add the ModifiedDate element
-                SOAPElement modifiedDateElement = fileAttsElement.addChildElement(new QName(OpenTextServices.CORE_NAMESPACE, "ModifiedDate"));
-                modifiedDateElement.addTextNode(fileAtts.getModifiedDate().toString());
+    public static OTPortPool<ContentService> getContentServicePool() {
+        return CONTENT_SERVICE_POOL;
+    }
 
-                // Add the FileSize element
-                SOAPElement fileSizeElement = fileAttsElement.addChildElement(new QName(OpenTextServices.CORE_NAMESPACE, "FileSize"));
-                fileSizeElement.addTextNode(fileAtts.getFileSize().toString());
+    private static DocumentManagement createDocService(String authToken) throws SOAPException, MalformedURLException {
+        DocumentManagement docManClient = OTServiceRegistry.getInstance().createDocumentManagementPort();
 
-                // Add the FileName element
-                SOAPElement fileNameElement = fileAttsElement.addChildElement(new QName(OpenTextServices.CORE_NAMESPACE, "FileName"));
-                fileNameElement.addTextNode(fileAtts.getFileName());
+        // Set the SOAP header on the docManClient
+        ((WSBindingProvider) docManClient).setOutboundHeaders(OTHeaderFactory.getAuthHeader(authToken));
+        return docManClient;
+    }
 
-                headers.add(Headers.create(fileAttsElement));
-            }
-            ((WSBindingProvider) contentServiceClient).setOutboundHeaders(headers);
-        }
-        return contentServiceClient;
+    private static ContentService createContentService(String authToken) throws MalformedURLException {
+        // Create the ContentService client
+        return OTServiceRegistry.getInstance().createContentServicePort();
     }
 
     public static Authentication getAuthService() throws MalformedURLException {
-        if (authentication_service == null) {
-            URL url = new URL(EdmsProperties.getServerAuthURL());
-            authentication_service = new Authentication_Service(url);
-        }
         // Create the Authentication service client
-        Authentication authClient = authentication_service.getBasicHttpBindingAuthentication();
-        return authClient;
+        return OTServiceRegistry.getInstance().createAuthenticationPort();
     }
 
-    public static AttributeGroup buildDocumentCategory(String authToken, String[] docMetaData) throws MalformedURLException, SOAPException {
-        DocumentManagement docService = getDocService(authToken);
-        AttributeGroup documentInfoCategoryTemplate = docService.getCategoryTemplate(EdmsProperties.getDocumentInfoId());
+    public static AttributeGroup buildDocumentCategory(DocumentManagement docService, String[] docMetaData) {
+        AttributeGroup documentInfoCategoryTemplate = OTCategoryTemplateCache.getInstance().getTemplate(docService, EdmsProperties.getDocumentInfoId());
 
         // Document Source
         StringValue DocumentSourceByValue = (StringValue) documentInfoCategoryTemplate.getValues().get(0);
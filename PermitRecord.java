@@ -0,0 +1,123 @@
+package amanda.edms;
+
+/**
+ * One row of SNOCO_PRISM_Get_Permit_Complete_New, the primary permit of a folder comes first
+ */
+public class PermitRecord {
+
+    private String permitType;
+
+    private String permitTypeDescription;
+
+    private String permitNumber;
+
+    private String folderName;
+
+    private String parcelNumber;
+
+    private String folderRSN;
+
+    private String location;
+
+    private String applicationTrackingNumber;
+
+    private String sectionTownshipRange;
+
+    private String folderDescription;
+
+    private String contact;
+
+    public String getPermitType() {
+        return permitType;
+    }
+
+    public void setPermitType(String permitType) {
+        this.permitType = permitType;
+    }
+
+    public String getPermitTypeDescription() {
+        return permitTypeDescription;
+    }
+
+    public void setPermitTypeDescription(String permitTypeDescription) {
+        this.permitTypeDescription = permitTypeDescription;
+    }
+
+    public String getPermitNumber() {
+        return permitNumber;
+    }
+
+    public void setPermitNumber(String permitNumber) {
+        this.permitNumber = permitNumber;
+    }
+
+    public String getFolderName() {
+        return folderName;
+    }
+
+    public void setFolderName(String folderName) {
+        this.folderName = folderName;
+    }
+
+    public String getParcelNumber() {
+        return parcelNumber;
+    }
+
+    public void setParcelNumber(String parcelNumber) {
+        this.parcelNumber = parcelNumber;
+    }
+
+    public String getFolderRSN() {
+        return folderRSN;
+    }
+
+    public void setFolderRSN(String folderRSN) {
+        this.folderRSN = folderRSN;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public String getApplicationTrackingNumber() {
+        return applicationTrackingNumber;
+    }
+
+    public void setApplicationTrackingNumber(String applicationTrackingNumber) {
+        this.applicationTrackingNumber = applicationTrackingNumber;
+    }
+
+    /**
+     * Section Township Range (STR) of the permit
+     */
+    public String getSectionTownshipRange() {
+        return sectionTownshipRange;
+    }
+
+    public void setSectionTownshipRange(String sectionTownshipRange) {
+        this.sectionTownshipRange = sectionTownshipRange;
+    }
+
+    public String getFolderDescription() {
+        return folderDescription;
+    }
+
+    public void setFolderDescription(String folderDescription) {
+        this.folderDescription = folderDescription;
+    }
+
+    /**
+     * People contact in the "role: name" format
+     */
+    public String getContact() {
+        return contact;
+    }
+
+    public void setContact(String contact) {
+        this.contact = contact;
+    }
+}
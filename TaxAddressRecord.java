@@ -0,0 +1,47 @@
+package amanda.edms;
+
+/**
+ * One property address row of SNOCO_PRISM_Get_Addresses
+ */
+public class TaxAddressRecord {
+
+    private String alternateTaxId;
+
+    private String address;
+
+    private String city;
+
+    private String zip;
+
+    public String getAlternateTaxId() {
+        return alternateTaxId;
+    }
+
+    public void setAlternateTaxId(String alternateTaxId) {
+        this.alternateTaxId = alternateTaxId;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public void setCity(String city) {
+        this.city = city;
+    }
+
+    public String getZip() {
+        return zip;
+    }
+
+    public void setZip(String zip) {
+        this.zip = zip;
+    }
+}